@@ -3,6 +3,14 @@ import simulation.TrafficSim;
 public class Main {
 
     public static void main(String[] args) {
-        TrafficSim.runSim();
+        if (args.length > 0 && args[0].equals("load")) { // Ex: load users=5000 symbols=2000 threads=8
+            TrafficSim.runLoad(java.util.Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 1 && args[0].equals("replay")) { // Ex: replay orders.journal
+            TrafficSim.runReplay(args[1]);
+        } else if (args.length > 2 && args[0].equals("recover")) { // Ex: recover snapshots orders.journal
+            TrafficSim.runRecover(args[1], args[2]);
+        } else {
+            TrafficSim.runSim();
+        }
     }
 }
@@ -1,21 +1,56 @@
 import book.BookSide;
 import book.ProductBook;
+import book.ProductManager;
+import exceptions.DataValidationException;
 import exceptions.InvalidArgumentException;
+import exceptions.InvalidRangeException;
 import exceptions.NullArgumentException;
 import exceptions.TradingApplicationException;
+import journal.JournalManager;
+import journal.JournalReplay;
+import journal.OrderJournal;
+import journal.Snapshot;
+import logging.ConsoleEventLog;
+import logging.EventLog;
+import logging.EventLogManager;
 import price.Price;
 import price.PriceFactory;
 import tradable.Order;
+import tracking.CurrentMarketObserver;
+import tracking.CurrentMarketPublisher;
+import tracking.DepthPublisher;
+import tracking.DepthUpdate;
 import tradable.OrderDTO;
+import tradable.OrderIds;
+import user.User;
+import user.UserManager;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
 
 public class Tests {
     public static void main(String[] args) {
+        try { // Log fills and markets synchronously, so they print in step with the book states.
+            EventLogManager.getInstance().setLog(new ConsoleEventLog());
+        } catch (NullArgumentException e) {
+            throw new RuntimeException(e);
+        }
         testPrice();
         testProductBook();
+        testAmend();
+        testIceberg();
+        testDepth();
+        testBatches();
+        testExecutions();
+        testOrderIds();
     }
 
     // Testing Helper Methods:
@@ -38,6 +73,66 @@ public class Tests {
         }
     }
 
+    public static void testParsers(String[] values) {
+        for (String val : values) {
+            String regex, singlePass;
+            try { regex = String.valueOf(PriceFactory.parseCentsRegex(val)); } catch (DataValidationException e) { regex = "invalid"; }
+            try { singlePass = String.valueOf(PriceFactory.parseCents(val)); } catch (DataValidationException e) { singlePass = "invalid"; }
+            System.out.println("Input: " + val + " | Regex: " + regex + " | Single pass: " + singlePass
+                    + (regex.equals(singlePass) ? "" : " <-- MISMATCH"));
+        }
+    }
+
+    /**
+     * The resting orders of a book, best price first and in queue order within a price, as user:remaining@price,
+     * or user:remaining/shown@price for an iceberg order.
+     */
+    public static String queue(ProductBook book) {
+        StringBuilder out = new StringBuilder();
+        book.forEachRestingOrder(o -> {
+            out.append(o.getUser()).append(':').append(o.getRemainingVolume());
+            if (o.getPeakVolume() > 0) { out.append('/').append(o.getDisplayedVolume()); }
+            out.append('@').append(o.getPrice()).append(' ');
+        });
+        return out.toString().trim();
+    }
+
+    /** Cancel every resting order in a book, with journaling off, so it can be restored again. */
+    public static void clear(ProductBook book) throws TradingApplicationException {
+        List<Order> resting = new ArrayList<>();
+        book.forEachRestingOrder(resting::add);
+        long[] ids = new long[resting.size()];
+        BookSide[] sides = new BookSide[resting.size()];
+        for (int i = 0; i < ids.length; i++) { // Copied first, as the orders are released once cancelled.
+            ids[i] = resting.get(i).getOrderId();
+            sides[i] = resting.get(i).getSide();
+        }
+        for (int i = 0; i < ids.length; i++) { book.cancel(sides[i], ids[i]); }
+    }
+
+    /** Levels as price x volume (orders), best first. */
+    public static String levels(List<long[]> levels) {
+        StringBuilder out = new StringBuilder();
+        for (long[] level : levels) { out.append(Price.toString(level[0])).append('x').append(level[1]).append('(').append(level[2]).append(") "); }
+        return out.toString().trim();
+    }
+
+    /** The best levels of a book side read straight from the book, in the same form as {@link #levels}. */
+    public static String bookLevels(ProductBook book, BookSide side, int depth) {
+        long[] prices = new long[depth];
+        int[] volumes = new int[depth];
+        int[] orderCounts = new int[depth];
+        List<long[]> levels = new ArrayList<>();
+        for (int i = 0, n = book.getDepth(side, depth, prices, volumes, orderCounts); i < n; i++) {
+            levels.add(new long[]{prices[i], volumes[i], orderCounts[i]});
+        }
+        return levels(levels);
+    }
+
+    public static void check(String what, Object actual, Object expected) {
+        System.out.println(what + ": " + actual + (Objects.equals(actual, expected) ? "" : " <-- MISMATCH, expected " + expected));
+    }
+
     public static void testComparing(Price p, Price pOther) {
         System.out.println("\n" + p + " Compare with " + pOther);
         try {
@@ -65,6 +160,12 @@ public class Tests {
         String[] fails = {null, "", "1.2.3"};
         testStrings(fails);
 
+        System.out.println("\n--- Test single pass parser matches regex parser ---");
+        String[] unusual = {" $12.85 ", "+12.5", "+.5", "5.", "1,2,3.4", "$-$12", "--12", "1.234e5", "1.2e5",
+                            "12 $", "1.50 $", "0x1p3", "NaN", "12345678901234567890", "0000000000000000001.5"};
+        testParsers(strTests);
+        testParsers(unusual);
+
         System.out.println("\n--- Test valid integers ---");
         long[] intTests = {-1, 0, 1, 20, 300, 4000, 50000};
         for (long test : intTests) {
@@ -156,4 +257,337 @@ public class Tests {
             System.exit(0);
         }
     }
+
+    public static void testAmend() {
+        // Test amending resting orders in place, and the queue priority rules:
+        System.out.println("\n--- Amend ---");
+        try {
+            UserManager.getInstance().init(new String[]{"AAA", "BBB", "CCC", "DDD"});
+            ProductManager manager = ProductManager.getInstance();
+            ProductBook book = manager.getProductBook(manager.addProduct("TGT"));
+
+            OrderDTO aaa = manager.addOrder(new Order("AAA", "TGT", BookSide.BUY, PriceFactory.makePrice(1000), 50));
+            UserManager.getInstance().addToUser("AAA", aaa);
+            manager.addOrder(new Order("BBB", "TGT", BookSide.BUY, PriceFactory.makePrice(1000), 60));
+            check("Resting", queue(book), "AAA:50@$10.00 BBB:60@$10.00");
+
+            // 1) A volume cut at the same price keeps the order's place, and the cut is reported to the user.
+            manager.amend(aaa, PriceFactory.makePrice(1000), 30);
+            check("Cut AAA to 30", queue(book), "AAA:30@$10.00 BBB:60@$10.00");
+            OrderDTO known = UserManager.getInstance().getUser("AAA").getOrder(aaa.orderId);
+            check("AAA cancelled volume", known.cancelledVolume, 20);
+            check("AAA remaining volume", known.remainingVolume, 30);
+
+            // 2) More volume at the same price goes to the back.
+            manager.amend(aaa, PriceFactory.makePrice(1000), 40);
+            check("Raise AAA to 40", queue(book), "BBB:60@$10.00 AAA:40@$10.00");
+            known = UserManager.getInstance().getUser("AAA").getOrder(aaa.orderId);
+            check("AAA copy after the raise", known.price + " orig " + known.originalVolume + " rem " + known.remainingVolume, "$10.00 orig 60 rem 40");
+
+            // 3) A new price goes to the back of the new price, even with less volume.
+            manager.addOrder(new Order("CCC", "TGT", BookSide.BUY, PriceFactory.makePrice(995), 10));
+            manager.amend("TGT", BookSide.BUY, aaa.orderId, PriceFactory.makePrice(995), 35);
+            check("Move AAA to $9.95", queue(book), "BBB:60@$10.00 CCC:10@$9.95 AAA:35@$9.95");
+            known = UserManager.getInstance().getUser("AAA").getOrder(aaa.orderId);
+            check("AAA copy after the move", known.price + " orig " + known.originalVolume + " rem " + known.remainingVolume, "$9.95 orig 60 rem 35");
+
+            // 4) An amend that crosses the book trades.
+            OrderDTO ddd = manager.addOrder(new Order("DDD", "TGT", BookSide.SELL, PriceFactory.makePrice(1010), 25));
+            manager.amend(ddd, PriceFactory.makePrice(1000), 25);
+            check("Cross DDD at $10.00", queue(book), "BBB:35@$10.00 CCC:10@$9.95 AAA:35@$9.95");
+            check("DDD position", UserManager.getInstance().getUser("DDD").getPosition("TGT"), -25L);
+
+            // 5) A rejected amend changes nothing and isn't journaled, and a replay skips one that was (in an older journal).
+            Path journalFile = Files.createTempDirectory("tests").resolve("orders.journal");
+            JournalManager.getInstance().setJournal(OrderJournal.open(journalFile, OrderJournal.FsyncPolicy.NONE));
+            OrderDTO bbb = manager.addOrder(new Order("BBB", "TGT", BookSide.SELL, PriceFactory.makePrice(1020), 40));
+            try {
+                manager.amend(bbb, PriceFactory.makePrice(1020), 0);
+                System.out.println("Amend to 0 accepted <-- MISMATCH");
+            } catch (InvalidRangeException e) {
+                System.out.println("Amend to 0 rejected: " + e.getMessage());
+            }
+            OrderJournal journal = JournalManager.getInstance().getJournal();
+            journal.amend(book.getProductId(), BookSide.SELL, bbb.orderId, 1020, 0); // As older journals recorded it.
+            manager.amend(bbb, PriceFactory.makePrice(1015), 30);
+            long changes = book.getChangeCount();
+            manager.amend(bbb, PriceFactory.makePrice(1015), 30); // Changes nothing, so no journal record or market.
+            check("Book changes for an amend to the same price and volume", book.getChangeCount() - changes, 0L);
+            String expected = queue(book);
+            check("Before replay", expected, "BBB:35@$10.00 CCC:10@$9.95 AAA:35@$9.95 BBB:30@$10.15");
+            JournalManager.getInstance().disable();
+            journal.close();
+
+            manager.cancel("TGT", BookSide.SELL, bbb.orderId); // Take back what the journal holds, then replay it.
+            JournalReplay.Result replayed = JournalReplay.replay(journalFile);
+            check("Replayed adds, amends, rejected", replayed.adds + ", " + replayed.amends + ", " + replayed.rejected, "1, 1, 1");
+            check("After replay", queue(book), expected);
+        } catch (TradingApplicationException | IOException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+            System.exit(0);
+        }
+    }
+
+    public static void testIceberg() {
+        // Test iceberg orders, which show only a peak of their volume at a time:
+        System.out.println("\n--- Iceberg ---");
+        try {
+            ProductManager manager = ProductManager.getInstance();
+            ProductBook book = manager.getProductBook(manager.addProduct("ICE"));
+            Path journalFile = Files.createTempDirectory("tests").resolve("orders.journal");
+            JournalManager.getInstance().setJournal(OrderJournal.open(journalFile, OrderJournal.FsyncPolicy.NONE));
+
+            // 1) Only the peak counts toward the top of book and the depth.
+            manager.addOrder(Order.iceberg("AAA", "ICE", BookSide.SELL, PriceFactory.makePrice(1000), 100, 10));
+            manager.addOrder(new Order("BBB", "ICE", BookSide.SELL, PriceFactory.makePrice(1000), 10));
+            check("Resting", queue(book), "AAA:100/10@$10.00 BBB:10@$10.00");
+            check("Top of book volume", book.getTopOfBookVolume(BookSide.SELL), 20);
+            long[] prices = new long[5];
+            int[] volumes = new int[5];
+            int[] orderCounts = new int[5];
+            int levels = book.getDepth(BookSide.SELL, 5, prices, volumes, orderCounts);
+            check("Depth", levels + " level, " + volumes[0] + " shown in " + orderCounts[0] + " orders", "1 level, 20 shown in 2 orders");
+
+            // 2) Once the peak fills, the next peak is shown from the reserve at the back of the level.
+            manager.addOrder(new Order("CCC", "ICE", BookSide.BUY, PriceFactory.makePrice(1000), 15));
+            check("Peak filled", queue(book), "BBB:5@$10.00 AAA:90/10@$10.00");
+            check("Top of book volume", book.getTopOfBookVolume(BookSide.SELL), 15);
+            manager.addOrder(new Order("CCC", "ICE", BookSide.BUY, PriceFactory.makePrice(1000), 12));
+            check("Next peak part filled", queue(book), "AAA:83/3@$10.00");
+            check("CCC position", UserManager.getInstance().getUser("CCC").getPosition("ICE"), 27L);
+
+            // 3) An iceberg round trips through the journal, as an ICEBERG record.
+            manager.addOrder(Order.iceberg("DDD", "ICE", BookSide.BUY, PriceFactory.makePrice(990), 50, 20));
+            String expected = queue(book);
+            OrderJournal journal = JournalManager.getInstance().getJournal();
+            JournalManager.getInstance().disable();
+            journal.close();
+            clear(book);
+            JournalReplay.replay(journalFile);
+            check("After replay", queue(book), expected);
+
+            // 4) And through a snapshot, with its peak and hidden reserve as they were.
+            ProductBook amendBook = manager.getProductBook("TGT");
+            String expectedAmend = queue(amendBook);
+            Path snapshotDir = Files.createTempDirectory("tests");
+            Snapshot.take(snapshotDir);
+            clear(book);
+            clear(amendBook);
+            JournalReplay.recover(snapshotDir, null);
+            check("After snapshot", queue(book), expected);
+            check("Other book after snapshot", queue(amendBook), expectedAmend);
+            check("Top of book volume", book.getTopOfBookVolume(BookSide.SELL), 3);
+        } catch (TradingApplicationException | IOException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+            System.exit(0);
+        }
+    }
+
+    public static void testDepth() {
+        // Test the depth updates, applied by position as a subscriber would, against the book's own levels:
+        System.out.println("\n--- Depth ---");
+        try {
+            int depth = 3;
+            List<List<long[]>> seen = List.of(new ArrayList<>(), new ArrayList<>()); // By side.
+            DepthPublisher.getInstance().subscribeDepth("DPT", depth, update -> {
+                for (int i = 0; i < update.getCount(); i++) {
+                    List<long[]> levels = seen.get(update.getSide(i).ordinal());
+                    int level = update.getLevel(i);
+                    switch (update.getAction(i)) {
+                        case DELETE -> levels.remove(level);
+                        case UPDATE -> levels.set(level, new long[]{update.getPrice(i), update.getVolume(i), update.getOrderCount(i)});
+                        case INSERT -> {
+                            levels.add(level, new long[]{update.getPrice(i), update.getVolume(i), update.getOrderCount(i)});
+                            if (levels.size() > update.getDepth()) { levels.remove(levels.size() - 1); } // Pushed past the depth.
+                        }
+                    }
+                }
+            });
+            ProductManager manager = ProductManager.getInstance();
+            ProductBook book = manager.getProductBook(manager.addProduct("DPT"));
+
+            // 1) Levels added, including ones pushed past the depth and back.
+            manager.addOrder(new Order("AAA", "DPT", BookSide.BUY, PriceFactory.makePrice(990), 10));
+            manager.addOrder(new Order("BBB", "DPT", BookSide.BUY, PriceFactory.makePrice(980), 20));
+            manager.addOrder(new Order("CCC", "DPT", BookSide.BUY, PriceFactory.makePrice(970), 30));
+            manager.addOrder(new Order("DDD", "DPT", BookSide.BUY, PriceFactory.makePrice(960), 40));
+            OrderDTO best = manager.addOrder(new Order("AAA", "DPT", BookSide.BUY, PriceFactory.makePrice(1000), 5));
+            manager.addOrder(new Order("BBB", "DPT", BookSide.BUY, PriceFactory.makePrice(990), 15));
+            manager.addOrder(new Order("CCC", "DPT", BookSide.SELL, PriceFactory.makePrice(1010), 25));
+            manager.addOrder(new Order("DDD", "DPT", BookSide.SELL, PriceFactory.makePrice(1020), 35));
+            checkDepth("Added", book, seen, depth, "$10.00x5(1) $9.90x25(2) $9.80x20(1)", "$10.10x25(1) $10.20x35(1)");
+
+            // 2) A cancel of the best level brings a deeper one back into the depth.
+            manager.cancel(best);
+            checkDepth("Cancelled best buy", book, seen, depth, "$9.90x25(2) $9.80x20(1) $9.70x30(1)", "$10.10x25(1) $10.20x35(1)");
+
+            // 3) A crossing trade that takes out levels on one side and rests on the other.
+            manager.addOrder(new Order("AAA", "DPT", BookSide.SELL, PriceFactory.makePrice(975), 60));
+            checkDepth("Crossing sell", book, seen, depth, "$9.70x30(1) $9.60x40(1)", "$9.75x15(1) $10.10x25(1) $10.20x35(1)");
+
+            // 4) Random adds, cancels and crossing orders, checked after each one (without logging each of them).
+            EventLog log = EventLogManager.getInstance().getLog();
+            EventLogManager.getInstance().disable();
+            Random random = new Random(42);
+            List<OrderDTO> live = new ArrayList<>();
+            String[] users = {"AAA", "BBB", "CCC", "DDD"};
+            int mismatches = 0;
+            for (int i = 0; i < 2000; i++) {
+                if (live.isEmpty() || random.nextInt(3) > 0) {
+                    BookSide side = random.nextBoolean() ? BookSide.BUY : BookSide.SELL;
+                    long price = (side == BookSide.BUY) ? 960 + 5 * random.nextInt(10) : 990 + 5 * random.nextInt(10);
+                    live.add(manager.addOrder(new Order(users[random.nextInt(4)], "DPT", side, PriceFactory.makePrice(price), 1 + random.nextInt(50))));
+                } else {
+                    manager.cancel(live.remove(random.nextInt(live.size())));
+                }
+                for (BookSide side : BookSide.values()) {
+                    if (!levels(seen.get(side.ordinal())).equals(bookLevels(book, side, depth))) { mismatches++; }
+                }
+            }
+            EventLogManager.getInstance().setLog(log);
+            check("Random depth mismatches", mismatches, 0);
+        } catch (TradingApplicationException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+            System.exit(0);
+        }
+    }
+
+    /** Check the levels a depth subscriber built from the updates against the book's, and against the expected levels. */
+    public static void checkDepth(String what, ProductBook book, List<List<long[]>> seen, int depth, String expectedBuy, String expectedSell) {
+        check(what + " buy levels", levels(seen.get(BookSide.BUY.ordinal())), expectedBuy);
+        check(what + " sell levels", levels(seen.get(BookSide.SELL.ordinal())), expectedSell);
+        check(what + " matches the book", levels(seen.get(BookSide.BUY.ordinal())).equals(bookLevels(book, BookSide.BUY, depth))
+                && levels(seen.get(BookSide.SELL.ordinal())).equals(bookLevels(book, BookSide.SELL, depth)), true);
+    }
+
+    public static void testBatches() {
+        // Test adding and cancelling batches of orders for several products at once:
+        System.out.println("\n--- Batches ---");
+        try {
+            ProductManager manager = ProductManager.getInstance();
+            ProductBook first = manager.getProductBook(manager.addProduct("BT1"));
+            ProductBook second = manager.getProductBook(manager.addProduct("BT2"));
+            Map<String, Integer> markets = new HashMap<>(); // Market updates received, by symbol.
+            CurrentMarketObserver counter = (symbol, buySide, sellSide) -> markets.merge(symbol, 1, Integer::sum);
+            CurrentMarketPublisher.getInstance().subscribeCurrentMarket("BT1", counter);
+            CurrentMarketPublisher.getInstance().subscribeCurrentMarket("BT2", counter);
+
+            // 1) A mixed product batch, with the results in the batch's order and one market per book.
+            List<Order> orders = List.of(
+                    new Order("AAA", "BT1", BookSide.BUY, PriceFactory.makePrice(1000), 100),
+                    new Order("BBB", "BT2", BookSide.SELL, PriceFactory.makePrice(2000), 50),
+                    new Order("CCC", "BT1", BookSide.SELL, PriceFactory.makePrice(1000), 40),
+                    new Order("DDD", "BT2", BookSide.BUY, PriceFactory.makePrice(1990), 20));
+            List<OrderDTO> added = manager.addOrders(orders);
+            List<String> order = new ArrayList<>();
+            for (OrderDTO dto : added) { order.add(dto.user + " " + dto.product); }
+            check("Added in batch order", String.join(", ", order), "AAA BT1, BBB BT2, CCC BT1, DDD BT2");
+            check("Ids in batch order", added.get(2).orderId == orders.get(2).getOrderId() && added.get(3).orderId == orders.get(3).getOrderId(), true);
+            check("Books", queue(first) + " | " + queue(second), "AAA:60@$10.00 | DDD:20@$19.90 BBB:50@$20.00");
+            check("Markets per book", markets.get("BT1") + " and " + markets.get("BT2"), "1 and 1");
+
+            // 2) A batch with an unknown product applies nothing.
+            markets.clear();
+            try {
+                manager.addOrders(List.of(new Order("AAA", "BT1", BookSide.BUY, PriceFactory.makePrice(995), 10),
+                        new Order("BBB", "NOPE", BookSide.BUY, PriceFactory.makePrice(995), 10)));
+                System.out.println("Batch with an unknown product added <-- MISMATCH");
+            } catch (InvalidArgumentException e) {
+                System.out.println("Batch with an unknown product rejected: " + e.getMessage());
+            }
+            check("Books", queue(first) + " | " + queue(second), "AAA:60@$10.00 | DDD:20@$19.90 BBB:50@$20.00");
+            check("Markets", markets.size(), 0);
+
+            // 3) A mixed product cancel batch, with null for an order that's no longer resting.
+            List<OrderDTO> cancelled = manager.cancelOrders(List.of(added.get(3), added.get(2), added.get(0)));
+            check("Cancelled in batch order", cancelled.get(0).user + " " + cancelled.get(1) + " " + cancelled.get(2).user, "DDD null AAA");
+            check("Books", queue(first) + " | " + queue(second), " | BBB:50@$20.00");
+            check("Markets per book", markets.get("BT1") + " and " + markets.get("BT2"), "1 and 1");
+        } catch (TradingApplicationException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+            System.exit(0);
+        }
+    }
+
+    public static void testExecutions() {
+        // Test the execution reports that keep each user's orders and positions up to date:
+        System.out.println("\n--- Executions ---");
+        try {
+            UserManager.getInstance().init(new String[]{"EEE", "FFF"});
+            User buyer = UserManager.getInstance().getUser("EEE");
+            User seller = UserManager.getInstance().getUser("FFF");
+            ProductManager manager = ProductManager.getInstance();
+            manager.addProduct("EXR");
+
+            // 1) A resting order is a working order.
+            OrderDTO buy = manager.addOrder(new Order("EEE", "EXR", BookSide.BUY, PriceFactory.makePrice(1000), 100));
+            UserManager.getInstance().addToUser("EEE", buy);
+            check("Buyer working orders", buy.remainingVolume + " remaining in " + buyer.getLiveOrderCount() + " order", "100 remaining in 1 order");
+
+            // 2) A part fill, and an order that fills before it reaches its user, which catches up once it does.
+            OrderDTO sell = manager.addOrder(new Order("FFF", "EXR", BookSide.SELL, PriceFactory.makePrice(1000), 30));
+            OrderDTO known = buyer.getOrder(buy.orderId);
+            check("Buyer part filled", known.remainingVolume + " remaining, " + known.filledVolume + " filled", "70 remaining, 30 filled");
+            check("Seller order before it arrives", seller.getOrder(sell.orderId), null);
+            UserManager.getInstance().addToUser("FFF", sell);
+            known = seller.getOrder(sell.orderId);
+            check("Seller order once it arrives", known.remainingVolume + " remaining, " + known.filledVolume + " filled", "0 remaining, 30 filled");
+            check("Seller working orders", seller.getLiveOrderCount(), 0);
+
+            // 3) A fill of the rest moves the order to the history, and the positions net out.
+            sell = manager.addOrder(new Order("FFF", "EXR", BookSide.SELL, PriceFactory.makePrice(995), 70));
+            UserManager.getInstance().addToUser("FFF", sell);
+            known = buyer.getOrder(buy.orderId);
+            check("Buyer filled", known.remainingVolume + " remaining, " + known.filledVolume + " filled", "0 remaining, 100 filled");
+            check("Buyer working orders", buyer.getLiveOrderCount(), 0);
+            check("Positions", buyer.getPosition("EXR") + " and " + seller.getPosition("EXR"), "100 and -100");
+
+            // 4) A cancel.
+            buy = manager.addOrder(new Order("EEE", "EXR", BookSide.BUY, PriceFactory.makePrice(900), 50));
+            UserManager.getInstance().addToUser("EEE", buy);
+            manager.cancel(buy);
+            known = buyer.getOrder(buy.orderId);
+            check("Buyer cancelled", known.remainingVolume + " remaining, " + known.cancelledVolume + " cancelled", "0 remaining, 50 cancelled");
+            check("Buyer working orders", buyer.getLiveOrderCount(), 0);
+            check("Positions", buyer.getPosition("EXR") + " and " + seller.getPosition("EXR"), "100 and -100");
+        } catch (TradingApplicationException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+            System.exit(0);
+        }
+    }
+
+    public static void testOrderIds() {
+        // Test reading order ids back out of their string form, which shows the order's price:
+        System.out.println("\n--- Order Ids ---");
+        try {
+            ProductManager manager = ProductManager.getInstance();
+            ProductBook book = manager.getProductBook(manager.addProduct("OID"));
+            for (long price : new long[]{1, 5, 99, 100, 14098, -250}) {
+                Order order = new Order("EEE", "OID", BookSide.BUY, PriceFactory.makePrice(price), 10);
+                check(order.getId(), OrderIds.parse(order.getId()) == order.getOrderId(), true);
+            }
+            check("Not an id", OrderIds.parse("EEEOID$10.00"), -1L);
+
+            // An amend to a new price changes the string form, which still parses, and cancels by it.
+            OrderDTO dto = manager.addOrder(new Order("EEE", "OID", BookSide.BUY, PriceFactory.makePrice(1000), 10));
+            UserManager.getInstance().addToUser("EEE", dto);
+            manager.amend(dto, PriceFactory.makePrice(1234), 10);
+            List<String> ids = new ArrayList<>();
+            book.forEachRestingOrder(o -> ids.add(o.getId()));
+            String id = ids.get(0);
+            check("Amended " + id, OrderIds.parse(id) == dto.orderId && id.contains("$12.34"), true);
+            check("User's copy", UserManager.getInstance().getUser("EEE").getOrder(dto.orderId).id, id);
+            OrderDTO cancelled = book.cancel(BookSide.BUY, id);
+            check("Cancelled by the amended id", cancelled != null && cancelled.orderId == dto.orderId && book.isEmpty(), true);
+        } catch (TradingApplicationException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+            System.exit(0);
+        }
+    }
 }
@@ -0,0 +1,79 @@
+package benchmark;
+
+import book.BookSide;
+import book.ProductBookSide;
+import exceptions.TradingApplicationException;
+import price.PriceFactory;
+import tradable.Order;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * A micro-benchmark for the price level storage behind {@link ProductBookSide}. Repeatedly rests a
+ * fixed set of orders spread over a number of price levels and then cancels them all, reporting the
+ * average time and heap allocation per operation. Run it before and after a book side change to
+ * compare the two.
+ */
+public final class BookSideBenchmark {
+
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int MEASURED_ROUNDS = 500;
+    private static final int TRIALS = 5;
+
+    private BookSideBenchmark() {} // Don't let anyone create an instance of this class.
+
+    public static void main(String[] args) throws TradingApplicationException {
+        int levels = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+        int ordersPerLevel = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+
+        // Build the orders up front so only the book side operations are measured:
+        Order[] orders = new Order[levels * ordersPerLevel];
+        long[] ids = new long[orders.length];
+        for (int i = 0; i < orders.length; i++) {
+            orders[i] = new Order("BMK", "BMK", BookSide.BUY, PriceFactory.makePrice(10000 + (i % levels) * 5L), 100);
+            ids[i] = orders[i].getOrderId();
+        }
+
+        ProductBookSide side = new ProductBookSide(BookSide.BUY);
+        for (int r = 0; r < WARMUP_ROUNDS; r++) { runRound(side, orders, ids); }
+
+        long ops = 2L * orders.length * MEASURED_ROUNDS; // One add and one cancel per order.
+        System.out.printf("levels=%d ordersPerLevel=%d ops/trial=%d%n", levels, ordersPerLevel, ops);
+        for (int t = 1; t <= TRIALS; t++) {
+            long allocStart = allocatedBytes();
+            long start = System.nanoTime();
+            long checksum = 0;
+            for (int r = 0; r < MEASURED_ROUNDS; r++) { checksum += runRound(side, orders, ids); }
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocStart;
+
+            System.out.printf("  trial %d: %.1f ns/op, %.1f bytes/op, %.0f ops/sec (checksum %d)%n", t,
+                    (double) elapsed / ops, (double) allocated / ops, ops * 1e9 / elapsed, checksum);
+        }
+    }
+
+    private static long runRound(ProductBookSide side, Order[] orders, long[] ids) throws TradingApplicationException {
+        long checksum = 0;
+        for (Order o : orders) {
+            o.setCancelledVolume(0);
+            o.setRemainingVolume(o.getOriginalVolume()); // Reset volumes left by the previous round's cancels.
+            side.add(o);
+            checksum += side.topOfBookPrice().getValue();
+        }
+        for (long id : ids) {
+            side.cancel(id);
+            checksum += side.topOfBookVolume();
+        }
+        return checksum;
+    }
+
+    /**
+     * @return the total bytes allocated by the current thread so far, or 0 if the JVM can't report it.
+     */
+    static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean) {
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,34 @@
+package benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Totals across every garbage collector in the JVM, for benchmarks to compare before and after a run.
+ */
+public final class GcStats {
+
+    private GcStats() {} // Don't let anyone create an instance of this class.
+
+    /**
+     * @return the number of collections since the JVM started.
+     */
+    public static long count() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0); // -1 if a collector doesn't report it.
+        }
+        return count;
+    }
+
+    /**
+     * @return the approximate time spent collecting since the JVM started, in milliseconds.
+     */
+    public static long timeMillis() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(gc.getCollectionTime(), 0);
+        }
+        return time;
+    }
+}
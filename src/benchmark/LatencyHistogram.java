@@ -0,0 +1,104 @@
+package benchmark;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size, log-linear histogram of latencies in nanoseconds. Every power of two is split into 32
+ * equal buckets, so any recorded value is reported to within about 3% using a single pre-allocated
+ * array, and recording never allocates. Not thread-safe: give each thread its own histogram and
+ * {@link #add(LatencyHistogram)} them together once the threads are done.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // Buckets per power of two.
+    /** Values below this are counted exactly, one bucket each. */
+    private static final int LINEAR_LIMIT = SUB_BUCKETS << 1;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long total;
+    private long max;
+
+    /**
+     * @param nanos the latency to record; negative values are counted as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) { nanos = 0; }
+        counts[indexFor(nanos)]++;
+        count++;
+        total += nanos;
+        if (nanos > max) { max = nanos; }
+    }
+
+    /**
+     * Add every value recorded by another histogram to this one.
+     *
+     * @param other the histogram to add.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) { counts[i] += other.counts[i]; }
+        count += other.count;
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    public long getCount() { return count; }
+
+    /**
+     * @return the sum of every recorded value, in nanoseconds.
+     */
+    public long getTotal() { return total; }
+
+    public long getMax() { return max; }
+
+    public double getMean() { return (count == 0) ? 0 : (double) total / count; }
+
+    /**
+     * @param percentile a percentile from 0 to 100 (ex: 99.9).
+     * @return the smallest recorded value (to bucket precision) that the given percentage of values are at or
+     * below, or 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) { return 0; }
+        long rank = (long) Math.ceil((Math.min(Math.max(percentile, 0), 100) / 100.0) * count);
+        if (rank < 1) { rank = 1; }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) { return Math.min(highestValueIn(i), max); }
+        }
+        return max;
+    }
+
+    private static int indexFor(long value) {
+        if (value < LINEAR_LIMIT) { return (int) value; }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS; // At least 1 here.
+        int top = (int) (value >>> shift); // Always from SUB_BUCKETS to 2 * SUB_BUCKETS - 1.
+        return LINEAR_LIMIT + ((shift - 1) << SUB_BUCKET_BITS) + (top - SUB_BUCKETS);
+    }
+
+    private static long highestValueIn(int index) {
+        if (index < LINEAR_LIMIT) { return index; }
+        int shift = ((index - LINEAR_LIMIT) >> SUB_BUCKET_BITS) + 1;
+        long top = ((index - LINEAR_LIMIT) & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * @return a one line summary (ex: "p50=120 p90=180 p99=450 p99.9=2100 max=15000 mean=131.2"), in nanoseconds.
+     */
+    @Override
+    public String toString() {
+        return String.format("p50=%d p90=%d p99=%d p99.9=%d max=%d mean=%.1f", getValueAtPercentile(50),
+                getValueAtPercentile(90), getValueAtPercentile(99), getValueAtPercentile(99.9), max, getMean());
+    }
+}
@@ -0,0 +1,284 @@
+package benchmark;
+
+import book.BookSide;
+import book.ProductBook;
+import exceptions.TradingApplicationException;
+import logging.EventLogManager;
+import price.PriceFactory;
+import tradable.Order;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A benchmark suite for {@link ProductBook} covering resting adds, cancels and crossing (matching) adds over
+ * a grid of scenarios. Each scenario seeds a book with a number of price levels per side and a number of
+ * orders per level (the depth), then replays a seeded stream of operations where each one is a cancel of a
+ * resting order, a crossing order, or otherwise a resting add, in the requested ratios.
+ * <br><br>
+ * Every operation is timed on its own, giving throughput and latency percentiles per operation type, and
+ * the heap allocated by the benchmark thread gives the bytes per operation and the allocation rate. The
+ * results are written to a plain text report, one line per scenario and operation type, which can be
+ * compared against an earlier report to spot regressions. Price parsing is covered separately by
+ * {@link PriceParseBenchmark}.
+ * <br><br>
+ * Arguments are optional "name=value" pairs, where the scenario parameters take comma separated lists and
+ * every combination is run:
+ * <pre>
+ *     levels=10,100,1000  depth=1,10  cancel=0.3  cross=0.1  ops=200000  trials=5  warmup=3
+ *     report=benchmark-report.txt  baseline=previous-report.txt
+ * </pre>
+ */
+public final class OrderBookBenchmark {
+
+    private static final String SYMBOL = "BMK";
+    private static final long MID_PRICE = 10000; // In cents.
+    private static final long TICK = 5;
+    private static final int ORDER_VOLUME = 100;
+
+    /** The kinds of operation measured. */
+    private enum Op {
+        ADD, CANCEL, MATCH
+    }
+
+    private OrderBookBenchmark() {} // Don't let anyone create an instance of this class.
+
+    public static void main(String[] args) throws TradingApplicationException, IOException {
+        Map<String, String> options = parseOptions(args);
+        int[] levelsGrid = intList(options.getOrDefault("levels", "10,100,1000"));
+        int[] depthGrid = intList(options.getOrDefault("depth", "1,10"));
+        double[] cancelGrid = doubleList(options.getOrDefault("cancel", "0.3"));
+        double[] crossGrid = doubleList(options.getOrDefault("cross", "0.1"));
+        int ops = Integer.parseInt(options.getOrDefault("ops", "200000"));
+        int trials = Integer.parseInt(options.getOrDefault("trials", "5"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "3"));
+        String reportPath = options.getOrDefault("report", "benchmark-report.txt");
+
+        EventLogManager.getInstance().disable(); // Measure the book, not the console.
+
+        List<String> report = new ArrayList<>();
+        report.add("# OrderBookBenchmark ops=" + ops + " trials=" + trials + " java=" + System.getProperty("java.version"));
+        for (int levels : levelsGrid) {
+            for (int depth : depthGrid) {
+                for (double cancel : cancelGrid) {
+                    for (double cross : crossGrid) {
+                        if (cancel + cross > 1) { continue; } // No room left for adds.
+                        Scenario scenario = new Scenario(levels, depth, cancel, cross, ops);
+                        for (int w = 0; w < warmup; w++) { scenario.run(w); }
+
+                        Result result = new Result();
+                        for (int t = 0; t < trials; t++) { result.add(scenario.run(1000 + t)); }
+                        for (String line : result.lines(scenario)) {
+                            System.out.println(line);
+                            report.add(line);
+                        }
+                    }
+                }
+            }
+        }
+
+        Files.write(Path.of(reportPath), report);
+        System.out.println("Report written to " + reportPath);
+        if (options.containsKey("baseline")) { compare(Path.of(options.get("baseline")), report, System.out); }
+    }
+
+    /** One point in the parameter grid, with the book seeding and operation stream it implies. */
+    private static final class Scenario {
+        final int levels;
+        final int depth;
+        final double cancelRatio;
+        final double crossRatio;
+        final int ops;
+
+        Scenario(int levels, int depth, double cancelRatio, double crossRatio, int ops) {
+            this.levels = levels;
+            this.depth = depth;
+            this.cancelRatio = cancelRatio;
+            this.crossRatio = crossRatio;
+            this.ops = ops;
+        }
+
+        String key() {
+            return String.format(Locale.ROOT, "levels=%d depth=%d cancel=%.2f cross=%.2f", levels, depth, cancelRatio, crossRatio);
+        }
+
+        /**
+         * Seed a fresh book, then time a stream of operations built from the given seed. Orders are all
+         * created before timing starts, so only the book operations are measured.
+         */
+        Trial run(long seed) throws TradingApplicationException {
+            Random random = new Random(seed);
+            ProductBook book = new ProductBook(SYMBOL);
+            List<Order> resting = new ArrayList<>(); // Cancel candidates, some will have traded by their turn.
+            for (int l = 0; l < levels; l++) {
+                for (int d = 0; d < depth; d++) {
+                    resting.add(add(book, restingOrder(BookSide.BUY, l)));
+                    resting.add(add(book, restingOrder(BookSide.SELL, l)));
+                }
+            }
+
+            // Build the operation stream:
+            Op[] types = new Op[ops];
+            Order[] orders = new Order[ops];
+            for (int i = 0; i < ops; i++) {
+                double roll = random.nextDouble();
+                BookSide side = random.nextBoolean() ? BookSide.BUY : BookSide.SELL;
+                if (roll < cancelRatio && !resting.isEmpty()) {
+                    types[i] = Op.CANCEL;
+                    int pick = random.nextInt(resting.size());
+                    orders[i] = resting.get(pick);
+                    resting.set(pick, resting.get(resting.size() - 1)); // Swap remove, each order is cancelled once.
+                    resting.remove(resting.size() - 1);
+                } else if (roll < cancelRatio + crossRatio) {
+                    types[i] = Op.MATCH;
+                    // Priced two ticks through the far side's seeded best, so it trades on arrival.
+                    long price = (side == BookSide.BUY) ? MID_PRICE + 3 * TICK : MID_PRICE - 2 * TICK;
+                    orders[i] = new Order("BMK", SYMBOL, side, PriceFactory.makePrice(price), ORDER_VOLUME);
+                } else {
+                    types[i] = Op.ADD;
+                    orders[i] = restingOrder(side, random.nextInt(levels));
+                    resting.add(orders[i]);
+                }
+            }
+
+            Trial trial = new Trial();
+            long allocStart = BookSideBenchmark.allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                Order o = orders[i];
+                long opStart = System.nanoTime();
+                if (types[i] == Op.CANCEL) {
+                    book.cancel(o.getSide(), o.getOrderId());
+                } else {
+                    book.add(o);
+                }
+                trial.latencies[types[i].ordinal()].record(System.nanoTime() - opStart);
+            }
+            trial.elapsedNanos = System.nanoTime() - start;
+            trial.allocatedBytes = BookSideBenchmark.allocatedBytes() - allocStart;
+            return trial;
+        }
+
+        private static Order add(ProductBook book, Order o) throws TradingApplicationException {
+            book.add(o);
+            return o;
+        }
+
+        /** An order resting the given number of levels back from its side's best seeded price. */
+        private static Order restingOrder(BookSide side, int level) throws TradingApplicationException {
+            long price = (side == BookSide.BUY) ? MID_PRICE - level * TICK : MID_PRICE + TICK + level * TICK;
+            return new Order("BMK", SYMBOL, side, PriceFactory.makePrice(price), ORDER_VOLUME);
+        }
+    }
+
+    /** The measurements from one timed run of a scenario. */
+    private static final class Trial {
+        final LatencyHistogram[] latencies = {new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram()};
+        long elapsedNanos;
+        long allocatedBytes;
+    }
+
+    /** The measurements from every trial of a scenario, combined. */
+    private static final class Result {
+        final LatencyHistogram[] latencies = {new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram()};
+        long elapsedNanos;
+        long allocatedBytes;
+
+        void add(Trial trial) {
+            for (int i = 0; i < latencies.length; i++) { latencies[i].add(trial.latencies[i]); }
+            elapsedNanos += trial.elapsedNanos;
+            allocatedBytes += trial.allocatedBytes;
+        }
+
+        List<String> lines(Scenario scenario) {
+            List<String> lines = new ArrayList<>();
+            long totalOps = 0;
+            for (LatencyHistogram h : latencies) { totalOps += h.getCount(); }
+            for (Op op : Op.values()) {
+                LatencyHistogram h = latencies[op.ordinal()];
+                if (h.getCount() == 0) { continue; }
+                // Throughput of the operation type alone, from the time spent in it:
+                double opsPerSec = h.getCount() * 1e9 / h.getTotal();
+                lines.add(String.format(Locale.ROOT, "%s op=%s count=%d ops/sec=%.0f %s", scenario.key(),
+                        op.name().toLowerCase(Locale.ROOT), h.getCount(), opsPerSec, h));
+            }
+            lines.add(String.format(Locale.ROOT, "%s op=all count=%d ops/sec=%.0f bytes/op=%.1f alloc.rate.MB/sec=%.1f",
+                    scenario.key(), totalOps, totalOps * 1e9 / elapsedNanos, (double) allocatedBytes / totalOps,
+                    allocatedBytes * 1e3 / elapsedNanos));
+            return lines;
+        }
+    }
+
+    /**
+     * Print the change in every numeric metric between a baseline report and the current one, for the
+     * scenario and operation lines present in both.
+     */
+    static void compare(Path baselinePath, List<String> current, PrintStream out) throws IOException {
+        Map<String, Map<String, Double>> baseline = new HashMap<>();
+        for (String line : Files.readAllLines(baselinePath)) {
+            if (!line.startsWith("#") && !line.isBlank()) { baseline.put(lineKey(line), metrics(line)); }
+        }
+
+        out.println("Compared with " + baselinePath + " (negative ops/sec or positive latency/bytes is worse):");
+        for (String line : current) {
+            if (line.startsWith("#")) { continue; }
+            Map<String, Double> before = baseline.get(lineKey(line));
+            if (before == null) { continue; }
+            StringBuilder diff = new StringBuilder(lineKey(line)).append(':');
+            for (Map.Entry<String, Double> metric : metrics(line).entrySet()) {
+                Double was = before.get(metric.getKey());
+                if (was == null || was == 0 || metric.getKey().equals("count")) { continue; }
+                diff.append(String.format(Locale.ROOT, " %s %+.1f%%", metric.getKey(), (metric.getValue() - was) * 100 / was));
+            }
+            out.println(diff);
+        }
+    }
+
+    /** The scenario and operation a report line is for, everything before the first measurement. */
+    private static String lineKey(String line) {
+        int end = line.indexOf(" count=");
+        return (end < 0) ? line : line.substring(0, end);
+    }
+
+    private static Map<String, Double> metrics(String line) {
+        Map<String, Double> metrics = new LinkedHashMap<>();
+        for (String field : line.substring(lineKey(line).length()).trim().split(" ")) {
+            int eq = field.indexOf('=');
+            if (eq > 0) { metrics.put(field.substring(0, eq), Double.parseDouble(field.substring(eq + 1))); }
+        }
+        return metrics;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) { throw new IllegalArgumentException("Expected name=value, got: " + arg); }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    private static int[] intList(String value) {
+        String[] parts = value.split(",");
+        int[] list = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) { list[i] = Integer.parseInt(parts[i].trim()); }
+        return list;
+    }
+
+    private static double[] doubleList(String value) {
+        String[] parts = value.split(",");
+        double[] list = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) { list[i] = Double.parseDouble(parts[i].trim()); }
+        return list;
+    }
+}
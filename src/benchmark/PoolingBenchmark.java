@@ -0,0 +1,123 @@
+package benchmark;
+
+import book.BookSide;
+import book.ProductBook;
+import exceptions.TradingApplicationException;
+import logging.EventLogManager;
+import price.Price;
+import price.PriceFactory;
+import tradable.Order;
+import tradable.OrderDTO;
+import tradable.TradablePool;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Compares the garbage collection load of orders created with {@code new} against orders taken from the
+ * {@link TradablePool}. Each trial replays the same seeded stream of resting adds, cancels and crossing adds
+ * against a {@link ProductBook} once per mode, creating every order inside the timed loop as a real client
+ * would, and reports the time, bytes allocated per operation, and the number of collections and time spent
+ * in them during the run.
+ * <br><br>
+ * The benchmark plays the part of the users, dropping each {@link OrderDTO} as soon as the book returns it
+ * (releasing it to the pool in the pooled mode). Arguments are optional "name=value" pairs:
+ * <pre>
+ *     levels=100  ops=2000000  cancel=0.4  cross=0.1  trials=3  warmup=1
+ * </pre>
+ * Run with a small young generation (ex: -Xmn16m) to make the difference in collections easier to see.
+ */
+public final class PoolingBenchmark {
+
+    private static final String SYMBOL = "BMK";
+    private static final long MID_PRICE = 10000; // In cents.
+    private static final long TICK = 5;
+    private static final int ORDER_VOLUME = 100;
+
+    private PoolingBenchmark() {} // Don't let anyone create an instance of this class.
+
+    public static void main(String[] args) throws TradingApplicationException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) { throw new IllegalArgumentException("Expected name=value, got: " + arg); }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int levels = Integer.parseInt(options.getOrDefault("levels", "100"));
+        int ops = Integer.parseInt(options.getOrDefault("ops", "2000000"));
+        double cancel = Double.parseDouble(options.getOrDefault("cancel", "0.4"));
+        double cross = Double.parseDouble(options.getOrDefault("cross", "0.1"));
+        int trials = Integer.parseInt(options.getOrDefault("trials", "3"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "1"));
+
+        EventLogManager.getInstance().disable(); // Measure the book, not the console.
+        for (int w = 0; w < warmup; w++) {
+            run(false, levels, ops, cancel, cross, w);
+            run(true, levels, ops, cancel, cross, w);
+        }
+
+        System.out.printf(Locale.ROOT, "levels=%d ops=%d cancel=%.2f cross=%.2f%n", levels, ops, cancel, cross);
+        for (int t = 0; t < trials; t++) {
+            for (boolean pooled : new boolean[] {false, true}) {
+                System.gc(); // Start each run from a clean heap, so earlier runs' garbage isn't counted.
+                long gcCount = GcStats.count();
+                long gcMillis = GcStats.timeMillis();
+                long allocStart = BookSideBenchmark.allocatedBytes();
+                long elapsed = run(pooled, levels, ops, cancel, cross, 1000 + t);
+                long allocated = BookSideBenchmark.allocatedBytes() - allocStart;
+                System.out.printf(Locale.ROOT, "  trial %d pooled=%-5b: %.1f ns/op, %.1f bytes/op, gc collections=%d time=%dms%n",
+                        t + 1, pooled, (double) elapsed / ops, (double) allocated / ops,
+                        GcStats.count() - gcCount, GcStats.timeMillis() - gcMillis);
+            }
+        }
+        System.out.printf("pool created=%d reused=%d%n", TradablePool.getCreatedCount(), TradablePool.getReusedCount());
+    }
+
+    /**
+     * Replay the operation stream for a seed against a fresh book.
+     *
+     * @return the elapsed time in nanoseconds.
+     */
+    private static long run(boolean pooled, int levels, int ops, double cancelRatio, double crossRatio, long seed) throws TradingApplicationException {
+        SplittableRandom random = new SplittableRandom(seed);
+        ProductBook book = new ProductBook(SYMBOL);
+        // Cancel candidates by id, since a pooled order may be recycled once it trades:
+        long[] restingIds = new long[ops];
+        BookSide[] restingSides = new BookSide[ops];
+        int resting = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            double roll = random.nextDouble();
+            BookSide side = random.nextBoolean() ? BookSide.BUY : BookSide.SELL;
+            if (roll < cancelRatio && resting > 0) {
+                int pick = random.nextInt(resting);
+                OrderDTO dto = book.cancel(restingSides[pick], restingIds[pick]); // Null if it has since traded.
+                resting--; // Swap remove, each order is cancelled once.
+                restingIds[pick] = restingIds[resting];
+                restingSides[pick] = restingSides[resting];
+                if (dto != null) { dto.release(); }
+            } else {
+                long price;
+                if (roll < cancelRatio + crossRatio) { // Priced through the far side's best, so it trades on arrival.
+                    price = (side == BookSide.BUY) ? MID_PRICE + (levels + 1) * TICK : MID_PRICE - levels * TICK;
+                } else {
+                    int level = random.nextInt(levels);
+                    price = (side == BookSide.BUY) ? MID_PRICE - level * TICK : MID_PRICE + TICK + level * TICK;
+                }
+                Order order = newOrder(pooled, side, PriceFactory.makePrice(price));
+                restingIds[resting] = order.getOrderId(); // Read before adding, a pooled order is recycled once it fills.
+                restingSides[resting++] = side;
+                book.add(order).release();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static Order newOrder(boolean pooled, BookSide side, Price price) throws TradingApplicationException {
+        if (pooled) { return TradablePool.acquireOrder("BMK", SYMBOL, side, price, ORDER_VOLUME); }
+        return new Order("BMK", SYMBOL, side, price, ORDER_VOLUME);
+    }
+}
@@ -0,0 +1,61 @@
+package benchmark;
+
+import exceptions.TradingApplicationException;
+import price.PriceFactory;
+
+/**
+ * A micro-benchmark comparing the single-pass {@link PriceFactory#parseCents(CharSequence)} against the
+ * original regular expression based {@link PriceFactory#parseCentsRegex(String)}, reporting the average
+ * time and heap allocation per parsed price for each.
+ */
+public final class PriceParseBenchmark {
+
+    private static final int WARMUP_ROUNDS = 20_000;
+    private static final int MEASURED_ROUNDS = 100_000;
+    private static final int TRIALS = 5;
+
+    /** A mix of the price formats seen on order entry. */
+    private static final String[] INPUTS = {
+            "140.95", "174.80", "$102.10", "196.8", "-0.75", "$1,234,567.89", "12", "$.89", "$-34.54231", "0.05"
+    };
+
+    private PriceParseBenchmark() {} // Don't let anyone create an instance of this class.
+
+    private interface Parser {
+        long parse(String value) throws TradingApplicationException;
+    }
+
+    public static void main(String[] args) throws TradingApplicationException {
+        Parser singlePass = PriceFactory::parseCents;
+        Parser regex = PriceFactory::parseCentsRegex;
+        for (int r = 0; r < WARMUP_ROUNDS; r++) { // Warm up both parsers before measuring either.
+            runRound(singlePass);
+            runRound(regex);
+        }
+
+        measure("parseCents (single pass)", singlePass);
+        measure("parseCentsRegex (original)", regex);
+    }
+
+    private static void measure(String name, Parser parser) throws TradingApplicationException {
+        long ops = (long) INPUTS.length * MEASURED_ROUNDS;
+        System.out.printf("%s, ops/trial=%d%n", name, ops);
+        for (int t = 1; t <= TRIALS; t++) {
+            long allocStart = BookSideBenchmark.allocatedBytes();
+            long start = System.nanoTime();
+            long checksum = 0;
+            for (int r = 0; r < MEASURED_ROUNDS; r++) { checksum += runRound(parser); }
+            long elapsed = System.nanoTime() - start;
+            long allocated = BookSideBenchmark.allocatedBytes() - allocStart;
+
+            System.out.printf("  trial %d: %.1f ns/op, %.1f bytes/op (checksum %d)%n", t,
+                    (double) elapsed / ops, (double) allocated / ops, checksum);
+        }
+    }
+
+    private static long runRound(Parser parser) throws TradingApplicationException {
+        long checksum = 0;
+        for (String input : INPUTS) { checksum += parser.parse(input); }
+        return checksum;
+    }
+}
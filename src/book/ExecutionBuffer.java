@@ -0,0 +1,47 @@
+package book;
+
+import exceptions.NullArgumentException;
+import journal.JournalManager;
+import journal.OrderJournal;
+import tradable.ExecutionReport;
+import tradable.Order;
+import user.UserManager;
+
+import java.util.ArrayList;
+
+/**
+ * Collects the {@link ExecutionReport}s a {@link ProductBook} produces while applying one request, and
+ * numbers them in the order they happened. Once the request is done the whole batch is handed to the
+ * {@link UserManager} together, so each user's reports are applied in one go.
+ */
+final class ExecutionBuffer {
+
+    private final ArrayList<ExecutionReport> reports = new ArrayList<>();
+    private long sequence;
+
+    void fill(Order order, int volume, long price) {
+        reports.add(new ExecutionReport(++sequence, ExecutionReport.Type.FILL, order, volume, price));
+    }
+
+    void cancel(Order order, int volume) {
+        reports.add(new ExecutionReport(++sequence, ExecutionReport.Type.CANCEL, order, volume, order.getPrice().getValue()));
+    }
+
+    void amend(Order order, int cancelledVolume) {
+        reports.add(new ExecutionReport(++sequence, ExecutionReport.Type.AMEND, order, cancelledVolume, order.getPrice().getValue()));
+    }
+
+    /**
+     * Send the reports collected so far to the users, then start a new batch.
+     */
+    void publish() throws NullArgumentException {
+        if (reports.isEmpty()) { return; }
+        try {
+            OrderJournal journal = JournalManager.getInstance().getJournal();
+            if (journal != null) { journal.fills(reports); }
+            UserManager.getInstance().acceptExecutions(reports);
+        } finally {
+            reports.clear();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package book;
+
+/**
+ * An open-addressing hash map from a primitive long key, such as a price in cents or an order id, to a
+ * value. Keys are kept as primitive longs with linear probing, so lookups on the matching path neither
+ * box the key nor go through {@link Object#hashCode()}. Removal uses backward-shift deletion, so no
+ * tombstones are left behind to lengthen later probes.
+ *
+ * @param <V> the value type.
+ */
+final class LongMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 64; // Must be a power of two.
+
+    private long[] keys;
+    private Object[] values; // A null value marks an empty slot.
+    private int mask;
+    private int size;
+
+    LongMap() {
+        keys = new long[DEFAULT_CAPACITY];
+        values = new Object[DEFAULT_CAPACITY];
+        mask = DEFAULT_CAPACITY - 1;
+    }
+
+    int size() { return size; }
+
+    boolean isEmpty() { return size == 0; }
+
+    /**
+     * @param key a key.
+     * @return the value stored for the key, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        for (int i = indexFor(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) { return (V) values[i]; }
+        }
+        return null;
+    }
+
+    /**
+     * @param key a key.
+     * @param value the value to store for the key, must not be null.
+     */
+    void put(long key, V value) {
+        int i = indexFor(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) { // Replace an existing entry.
+                values[i] = value;
+                return;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > (values.length >> 1)) { resize(); } // Keep the load factor at or below 0.5.
+    }
+
+    /**
+     * @param key a key.
+     * @return the value that was stored for the key, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int i = indexFor(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) { break; }
+        }
+        V removed = (V) values[i];
+        if (removed == null) { return null; }
+
+        // Shift back any following entries in the probe run that would otherwise become unreachable:
+        int gap = i;
+        for (int j = (gap + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = indexFor(keys[j]);
+            // Move the entry if its home slot is not cyclically within (gap, j].
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = null;
+        size--;
+        return removed;
+    }
+
+    private int indexFor(long key) {
+        long h = key * 0x9E3779B97F4A7C15L; // Fibonacci hashing spreads sequential prices and ids across the table.
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[oldKeys.length << 1];
+        values = new Object[oldValues.length << 1];
+        mask = values.length - 1;
+        size = 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) { reinsert(oldKeys[i], oldValues[i]); }
+        }
+    }
+
+    private void reinsert(long key, Object value) { // Keys are unique and the table has room, just find a free slot.
+        int i = indexFor(key);
+        while (values[i] != null) { i = (i + 1) & mask; }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+}
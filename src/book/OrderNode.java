@@ -0,0 +1,21 @@
+package book;
+
+import tradable.Order;
+
+/**
+ * A queue node linking a resting {@link Order} into the FIFO of its {@link PriceLevel}. The node
+ * knows its own level and neighbours, so an order found through the book side's order id index
+ * can be unlinked in constant time without searching the level.
+ */
+final class OrderNode {
+
+    final Order order;
+    final PriceLevel level;
+    OrderNode prev;
+    OrderNode next;
+
+    OrderNode(Order order, PriceLevel level) {
+        this.order = order;
+        this.level = level;
+    }
+}
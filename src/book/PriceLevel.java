@@ -0,0 +1,87 @@
+package book;
+
+import price.Price;
+import tradable.Order;
+
+/**
+ * A single price level on one side of a product book. Holds the resting orders at the price in time
+ * priority as a doubly-linked FIFO of {@link OrderNode}s, along with running totals of their
+ * shown remaining volume and number, so the level's aggregates can be read without walking the orders.
+ */
+final class PriceLevel {
+
+    /** The price shared by every order resting at this level. */
+    private final Price price;
+    /** The price in cents, read by the matching loop without going through the {@link Price}. */
+    private final long priceValue;
+    /** The oldest (first to trade) and newest resting orders at this price. */
+    private OrderNode head;
+    private OrderNode tail;
+    /** Running total of the remaining volume shown by all orders at this level, less any iceberg reserves. */
+    private int volume;
+    /** The number of orders resting at this level. */
+    private int orderCount;
+
+    PriceLevel(Price price) {
+        this.price = price;
+        this.priceValue = price.getValue();
+    }
+
+    Price getPrice() { return price; }
+
+    long getPriceValue() { return priceValue; }
+
+    int getVolume() { return volume; }
+
+    int getOrderCount() { return orderCount; }
+
+    boolean isEmpty() { return head == null; }
+
+    /**
+     * @return the node for the order with the highest time priority, or null if the level is empty.
+     */
+    OrderNode first() { return head; }
+
+    /**
+     * Append an order to the back of the queue.
+     *
+     * @param o the order to add.
+     * @return the queue node now holding the order.
+     */
+    OrderNode add(Order o) {
+        OrderNode node = new OrderNode(o, this);
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+            node.prev = tail;
+        }
+        tail = node;
+        volume += o.getDisplayedVolume();
+        orderCount++;
+        return node;
+    }
+
+    /**
+     * Unlink an order's node from the queue, taking its shown volume off the level total.
+     *
+     * @param node a node belonging to this level.
+     */
+    void remove(OrderNode node) {
+        if (node.prev == null) { head = node.next; } else { node.prev.next = node.next; }
+        if (node.next == null) { tail = node.prev; } else { node.next.prev = node.prev; }
+        node.prev = null;
+        node.next = null;
+        volume -= node.order.getDisplayedVolume();
+        orderCount--;
+    }
+
+    /**
+     * Adjust the running volume total after an order at this level has been traded against or amended.
+     *
+     * @param tradedVolume the volume removed from the level, negative if volume was added.
+     */
+    void reduceVolume(int tradedVolume) {
+        volume -= tradedVolume;
+    }
+}
@@ -1,79 +1,344 @@
 package book;
 
 import tracking.CurrentMarketTracker;
+import tracking.DepthPublisher;
+import tradable.Identifiers;
 import tradable.Order;
 import tradable.OrderDTO;
+import tradable.OrderIds;
+import tradable.SymbolRegistry;
 import price.Price;
 
 import exceptions.InvalidArgumentException;
 import exceptions.InvalidRangeException;
 import exceptions.NullArgumentException;
+import journal.JournalManager;
+import journal.OrderJournal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 public class ProductBook {
 
     private String product;
+    /** The product's id, see {@link SymbolRegistry}. */
+    private int productId;
     private ProductBookSide buySide;
     private ProductBookSide sellSide;
+    /** Fills and cancels made by the current request, sent to the users once it's done. */
+    private final ExecutionBuffer executions = new ExecutionBuffer();
+    /**
+     * Held while a request changes the book, so {@link ProductManager#runPaused} can stop every book between
+     * requests. Only ever contended while the books are paused.
+     */
+    final ReentrantLock lock = new ReentrantLock();
 
     public ProductBook(String product) throws NullArgumentException, InvalidArgumentException {
         setProduct(product);
-        buySide = new ProductBookSide(BookSide.BUY);
-        sellSide = new ProductBookSide(BookSide.SELL);
+        buySide = new ProductBookSide(BookSide.BUY, executions);
+        sellSide = new ProductBookSide(BookSide.SELL, executions);
     }
 
   private void setProduct(String product) throws NullArgumentException, InvalidArgumentException {
-        if (product == null) { throw new NullArgumentException("Invalid product argument: null"); }
-        if (product.length() == 0 || product.length() > 5) { throw new InvalidArgumentException("Invalid product argument: length must be 1 to 5 characters"); }
-        if (!product.matches("[a-zA-Z0-9.]*")) { throw new InvalidArgumentException("Invalid product argument: must only contain letters, numbers, or a period"); }
-        this.product = product.toUpperCase();
+        this.product = Identifiers.product(product);
+        this.productId = SymbolRegistry.getInstance().register(this.product);
     }
 
     public String getProduct() { return product; }
 
+    public int getProductId() { return productId; }
+
     public OrderDTO add(Order o) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        OrderDTO dto = addWithoutMarketUpdate(o);
+        updateMarket(); // Report current market after changes.
+        return dto;
+    }
+
+    /**
+     * Add an order and trade any crossing volume, without reporting the current market. For callers that
+     * report the market themselves afterwards, such as a separate pipeline stage.
+     *
+     * @param o the order to add.
+     * @return an {@link OrderDTO} for the order as it was added, before any trades.
+     */
+    public OrderDTO addWithoutMarketUpdate(Order o) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
         if (o == null) { throw new NullArgumentException("Invalid Order argument: null"); }
-        OrderDTO dto = null;
-        switch (o.getSide()) { // Send the add request to the appropriate book side:
-            case BUY -> dto = buySide.add(o);
-            case SELL -> dto = sellSide.add(o);
+        lock.lock();
+        try {
+            OrderJournal journal = JournalManager.getInstance().getJournal();
+            if (journal != null) { journal.add(o); } // Recorded before the book changes.
+            OrderDTO dto = null;
+            switch (o.getSide()) { // Send the add request to the appropriate book side:
+                case BUY -> dto = buySide.add(o);
+                case SELL -> dto = sellSide.add(o);
+            }
+
+            tryTrade(); // Attempt to trade to see if we have new valid trades.
+            executions.publish(); // Report every fill to the users in one batch.
+            return dto;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add a batch of orders, then report the current market once for the whole batch rather than after every
+     * order. Each order still trades as it's added, so the fills are the same as adding them one at a time,
+     * but they're sent to the users together at the end.
+     *
+     * @param orders the orders to add, in arrival order.
+     * @return an {@link OrderDTO} for each order as it was added, before any trades, in the same order.
+     * @throws NullArgumentException if the list or any order in it is null.
+     * @throws InvalidArgumentException if an order is for another product, in which case none are added.
+     */
+    public List<OrderDTO> addOrders(List<Order> orders) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        if (orders == null) { throw new NullArgumentException("Invalid orders argument: null"); }
+        for (Order o : orders) { // Check the whole batch before any of it changes the book.
+            if (o == null) { throw new NullArgumentException("Invalid Order argument: null"); }
+            if (o.getProductId() != productId) {
+                throw new InvalidArgumentException("Invalid Order argument: product " + o.getProduct() + " does not match the book's product " + product);
+            }
+        }
+
+        ArrayList<OrderDTO> dtos = new ArrayList<>(orders.size());
+        lock.lock();
+        try {
+            OrderJournal journal = JournalManager.getInstance().getJournal();
+            for (Order o : orders) {
+                if (journal != null) { journal.add(o); } // Recorded before the book changes.
+                dtos.add((o.getSide() == BookSide.BUY) ? buySide.add(o) : sellSide.add(o));
+                tryTrade(); // Trade as it arrives, before the orders after it in the batch.
+            }
+            executions.publish(); // Report every fill in the batch to the users at once.
+        } finally {
+            lock.unlock();
+        }
+        updateMarket(); // Report current market after all the changes.
+        return dtos;
+    }
+
+    /**
+     * Cancel a batch of resting orders, then report the current market once for the whole batch.
+     *
+     * @param orders the orders to cancel.
+     * @return an {@link OrderDTO} for each cancelled order in the same order, or null for any no longer resting.
+     * @throws NullArgumentException if the list or any order in it is null.
+     * @throws InvalidArgumentException if an order is for another product, in which case none are cancelled.
+     */
+    public List<OrderDTO> cancelOrders(List<OrderDTO> orders) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        if (orders == null) { throw new NullArgumentException("Invalid orders argument: null"); }
+        for (OrderDTO o : orders) {
+            if (o == null) { throw new NullArgumentException("Invalid OrderDTO argument: null"); }
+            if (o.side == null) { throw new NullArgumentException("Invalid BookSide argument: null"); }
+            if (!product.equals(o.product)) {
+                throw new InvalidArgumentException("Invalid OrderDTO argument: product " + o.product + " does not match the book's product " + product);
+            }
         }
 
-        tryTrade(); // Attempt to trade to see if we have new valid trades.
+        ArrayList<OrderDTO> dtos = new ArrayList<>(orders.size());
+        lock.lock();
+        try {
+            OrderJournal journal = JournalManager.getInstance().getJournal();
+            for (OrderDTO o : orders) {
+                if (journal != null) { journal.cancel(productId, o.side, o.orderId); } // Recorded before the book changes.
+                dtos.add((o.side == BookSide.BUY) ? buySide.cancel(o.orderId) : sellSide.cancel(o.orderId));
+            }
+            executions.publish();
+        } finally {
+            lock.unlock();
+        }
+        updateMarket(); // Report current market after all the changes.
+        return dtos;
+    }
+
+    public OrderDTO cancel(BookSide side, String orderId) throws NullArgumentException, InvalidRangeException {
+        if (orderId == null) { throw new NullArgumentException("Invalid orderId argument: null"); }
+        return cancel(side, OrderIds.parse(orderId));
+    }
+
+    /**
+     * @param side the book side the order rests on.
+     * @param orderId the id of the order to cancel, see {@link OrderIds}.
+     * @return an {@link OrderDTO} for the cancelled order, or null if no such order is resting.
+     */
+    public OrderDTO cancel(BookSide side, long orderId) throws NullArgumentException, InvalidRangeException {
+        OrderDTO dto = cancelWithoutMarketUpdate(side, orderId);
         updateMarket(); // Report current market after changes.
         return dto;
     }
 
-    public OrderDTO cancel(BookSide side, String orderId) throws NullArgumentException, InvalidRangeException {
+    /**
+     * Cancel a resting order without reporting the current market. For callers that report the market
+     * themselves afterwards, such as a separate pipeline stage.
+     *
+     * @param side the book side the order rests on.
+     * @param orderId the id of the order to cancel, see {@link OrderIds}.
+     * @return an {@link OrderDTO} for the cancelled order, or null if no such order is resting.
+     */
+    public OrderDTO cancelWithoutMarketUpdate(BookSide side, long orderId) throws NullArgumentException, InvalidRangeException {
         if (side == null) { throw new NullArgumentException("Invalid BookSide argument: null"); }
-        OrderDTO dto = null;
-        switch (side) { // Send the cancel request to the appropriate book side:
-            case BUY -> dto = buySide.cancel(orderId);
-            case SELL -> dto = sellSide.cancel(orderId);
+        lock.lock();
+        try {
+            OrderJournal journal = JournalManager.getInstance().getJournal();
+            if (journal != null) { journal.cancel(productId, side, orderId); } // Recorded before the book changes.
+            OrderDTO dto = null;
+            switch (side) { // Send the cancel request to the appropriate book side:
+                case BUY -> dto = buySide.cancel(orderId);
+                case SELL -> dto = sellSide.cancel(orderId);
+            }
+            executions.publish();
+            return dto;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        updateMarket(); // Report current market after changes.
+    /**
+     * Change a resting order's price and remaining volume in place, rather than cancelling it and adding a new
+     * one, and report the current market once. Taking volume away at the same price keeps the order's place
+     * in the queue; a new price, or more volume, moves it to the back of the queue at its price, where it
+     * trades if it now crosses. An amend to the order's own price and volume changes nothing, so it isn't
+     * journaled and the market isn't reported.
+     *
+     * @param side the book side the order rests on.
+     * @param orderId the id of the order to amend, see {@link OrderIds}.
+     * @param price the new price.
+     * @param volume the new remaining volume.
+     * @return an {@link OrderDTO} for the amended order, before any trades, or null if no such order is resting.
+     */
+    public OrderDTO amend(BookSide side, long orderId, Price price, int volume) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        long changes = getChangeCount();
+        OrderDTO dto = amendWithoutMarketUpdate(side, orderId, price, volume);
+        if (getChangeCount() != changes) { updateMarket(); } // Report current market after changes.
         return dto;
     }
 
+    /**
+     * Amend a resting order (see {@link #amend}) without reporting the current market. For callers that report
+     * the market themselves afterwards, such as a journal replay.
+     *
+     * @return an {@link OrderDTO} for the amended order, before any trades, or null if no such order is resting.
+     */
+    public OrderDTO amendWithoutMarketUpdate(BookSide side, long orderId, Price price, int volume) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        if (side == null) { throw new NullArgumentException("Invalid BookSide argument: null"); }
+        if (price == null) { throw new NullArgumentException("Invalid Price argument: null"); }
+        lock.lock();
+        try {
+            long changes = getChangeCount();
+            OrderDTO dto = (side == BookSide.BUY) ? buySide.amend(orderId, price, volume) : sellSide.amend(orderId, price, volume);
+            if (getChangeCount() != changes) { // Only journaled once accepted and changed, a rejected or empty amend leaves nothing to replay.
+                OrderJournal journal = JournalManager.getInstance().getJournal();
+                if (journal != null) { journal.amend(productId, side, orderId, price.getValue(), volume); } // Recorded before any trades.
+                tryTrade(); // A new price may cross the other side.
+            }
+            executions.publish();
+            return dto;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Put an order back on the book as it was, without trading, journaling or reporting it, when restoring
+     * the books (ex: from a snapshot). Orders at the same price keep the order they're restored in.
+     *
+     * @param o the order, with its volumes as they were.
+     * @return an {@link OrderDTO} for the restored order.
+     */
+    public OrderDTO restore(Order o) throws NullArgumentException {
+        if (o == null) { throw new NullArgumentException("Invalid Order argument: null"); }
+        lock.lock();
+        try {
+            return (o.getSide() == BookSide.BUY) ? buySide.add(o) : sellSide.add(o);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copy the market by price of one side: the aggregated volume and number of orders at each of the best
+     * price levels, best first. Only the levels copied are read, the rest of the book isn't scanned.
+     *
+     * @param side the book side to read.
+     * @param max the most levels to copy, no more than the length of each array.
+     * @param prices filled with each level's price in cents.
+     * @param volumes filled with each level's total remaining volume.
+     * @param orderCounts filled with each level's number of orders.
+     * @return the number of levels copied.
+     */
+    public int getDepth(BookSide side, int max, long[] prices, int[] volumes, int[] orderCounts) {
+        return ((side == BookSide.BUY) ? buySide : sellSide).copyLevels(max, prices, volumes, orderCounts);
+    }
+
+    /**
+     * @return a count that increases with every change to the resting orders on either side.
+     */
+    public long getChangeCount() {
+        return buySide.getChangeCount() + sellSide.getChangeCount();
+    }
+
+    /**
+     * @return true if no orders are resting on either side.
+     */
+    public boolean isEmpty() {
+        return buySide.topOfBookPrice() == null && sellSide.topOfBookPrice() == null;
+    }
+
+    /**
+     * Visit every resting order, the buy side then the sell side, best price first and oldest first within a
+     * price. The book must not change meanwhile, see {@link ProductManager#runPaused}.
+     *
+     * @param action called with each order, which it must not keep: it may be pooled.
+     */
+    public void forEachRestingOrder(Consumer<Order> action) {
+        buySide.forEachOrder(action);
+        sellSide.forEachOrder(action);
+    }
+
+    /**
+     * @param side the book side to check.
+     * @return the best price on the given side, or null if the side is empty.
+     */
+    public Price getTopOfBookPrice(BookSide side) {
+        return (side == BookSide.BUY) ? buySide.topOfBookPrice() : sellSide.topOfBookPrice();
+    }
+
+    /**
+     * @param side the book side to check.
+     * @return the total volume resting at the best price on the given side, or 0 if the side is empty.
+     */
+    public int getTopOfBookVolume(BookSide side) {
+        return (side == BookSide.BUY) ? buySide.topOfBookVolume() : sellSide.topOfBookVolume();
+    }
+
+    /**
+     * Trade while the best buy price is at or above the best sell price. The best level on each side is held
+     * and traded directly, moving to the next level only once one empties, so sweeping K levels costs O(K)
+     * plus the number of fills.
+     */
     public void tryTrade() throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
-        Price topBuy = buySide.topOfBookPrice();
-        Price topSell = sellSide.topOfBookPrice();
+        PriceLevel topBuy = buySide.topLevel();
+        PriceLevel topSell = sellSide.topLevel();
         // While the buy price has a valid sell price for less or equal, continue trading:
-        while (((topBuy != null) && (topSell != null)) && (topBuy.greaterOrEqual(topSell))) {
-            int tradeVolume = Math.min(buySide.topOfBookVolume(), sellSide.topOfBookVolume()); // Trade the lowest common volume.
-            sellSide.tradeOut(topSell, tradeVolume);
-            buySide.tradeOut(topBuy, tradeVolume);
-            // Get next highest prices.
-            topBuy = buySide.topOfBookPrice();
-            topSell = sellSide.topOfBookPrice();
+        while (topBuy != null && topSell != null && topBuy.getPriceValue() >= topSell.getPriceValue()) {
+            int tradeVolume = Math.min(topBuy.getVolume(), topSell.getVolume()); // Trade the lowest common volume.
+            topSell = sellSide.tradeOut(topSell, tradeVolume); // Each returns its next best level.
+            topBuy = buySide.tradeOut(topBuy, tradeVolume);
         }
     }
 
-    private void updateMarket() throws NullArgumentException {
+    /**
+     * Report the book's current market, and its depth to any depth observers, for callers that changed it
+     * without doing so (ex: replaying a journal).
+     */
+    public void updateMarket() throws NullArgumentException {
         // Report the current top market prices and volumes for this product book symbol.
-        CurrentMarketTracker.getInstance().updateMarket(product,
+        CurrentMarketTracker.getInstance().updateMarket(productId,
                 buySide.topOfBookPrice(), buySide.topOfBookVolume(),
                 sellSide.topOfBookPrice(), sellSide.topOfBookVolume());
+        DepthPublisher.getInstance().publish(this);
     }
 
     @Override
@@ -3,22 +3,47 @@ package book;
 import exceptions.InvalidArgumentException;
 import tradable.Order;
 import tradable.OrderDTO;
+import tradable.OrderIds;
 import price.Price;
 import exceptions.InvalidRangeException;
 import exceptions.NullArgumentException;
+import logging.EventLogManager;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.function.Consumer;
 
 public class ProductBookSide {
 
     private BookSide side;
-    private final HashMap<Price, ArrayList<Order>> bookEntries;
+    /** Price levels keyed on the primitive price value in cents. */
+    private final LongMap<PriceLevel> bookEntries;
+    /**
+     * Level prices in cents ordered worst to best (the best price is highest for BUY, lowest for SELL).
+     * Keeping the best price at the end means most level inserts, which happen near the top of the book,
+     * only shift a few entries. Removed levels deeper in the book are left as stale entries (no longer in
+     * bookEntries) and skipped, then dropped when they reach the end or by an occasional compaction.
+     */
+    private long[] ladder;
+    private int ladderSize;
+    /** Cached best price level so top-of-book reads don't need to search the map; null when empty. */
+    private PriceLevel topOfBook;
+    /** Index of resting orders mapping the order ID to its queue node, for constant time cancels. */
+    private final LongMap<OrderNode> orderIndex;
+    /** Increases with every change to the resting orders, so readers can tell the side hasn't changed. */
+    private long changeCount;
+    /** Where fills and cancels are reported, or null for a side outside of a {@link ProductBook}. */
+    private final ExecutionBuffer executions;
 
     public ProductBookSide(BookSide side) throws NullArgumentException {
+        this(side, null);
+    }
+
+    ProductBookSide(BookSide side, ExecutionBuffer executions) throws NullArgumentException {
         setSide(side);
-        bookEntries = new HashMap<>();
+        bookEntries = new LongMap<>();
+        ladder = new long[16];
+        orderIndex = new LongMap<>();
+        this.executions = executions;
     }
 
     private void setSide(BookSide side) throws NullArgumentException {
@@ -28,106 +53,275 @@ public class ProductBookSide {
 
     public OrderDTO add(Order o) throws NullArgumentException {
         if (o == null) { throw new NullArgumentException("Invalid Order argument: null"); }
-        Price price = o.getPrice();
-        if (!bookEntries.containsKey(price)) { // Add the price key if it doesn't exist already.
-            bookEntries.put(price, new ArrayList<Order>());
-        }
-        bookEntries.get(price).add(o);
+        PriceLevel level = levelFor(o.getPrice());
+        orderIndex.put(o.getOrderId(), level.add(o));
+        changeCount++;
 
         return o.makeTradableDTO();
     }
 
+    /**
+     * @return the level for a price, added if it doesn't exist already.
+     */
+    private PriceLevel levelFor(Price price) {
+        PriceLevel level = bookEntries.get(price.getValue());
+        if (level == null) { // Add the price level if it doesn't exist already.
+            level = new PriceLevel(price);
+            bookEntries.put(price.getValue(), level);
+            insertIntoLadder(price.getValue());
+            if (topOfBook == null || isBetter(price.getValue(), topOfBook.getPrice().getValue())) {
+                topOfBook = level; // The new level is the best price on this side.
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Change a resting order's price and remaining volume in place. Taking volume away at the same price keeps
+     * the order's place in the queue; a new price, or more volume, moves it to the back of the queue at its
+     * price, as if it had just been added.
+     *
+     * @param orderId the id of the order to amend, see {@link OrderIds}.
+     * @param price the new price.
+     * @param volume the new remaining volume.
+     * @return an {@link OrderDTO} for the amended order, or null if no such order is resting on this side. The
+     *         change count only moves if the order changed, not for an amend to its own price and volume.
+     * @throws InvalidRangeException if the new volume is out of range, in which case nothing is changed.
+     */
+    public OrderDTO amend(long orderId, Price price, int volume) throws NullArgumentException, InvalidRangeException {
+        if (price == null) { throw new NullArgumentException("Invalid Price argument: null"); }
+        OrderNode node = orderIndex.get(orderId);
+        if (node == null) { return null; }
+
+        PriceLevel level = node.level;
+        Order order = node.order;
+        int remainingVolume = order.getRemainingVolume();
+        int shownVolume = order.getDisplayedVolume();
+        boolean keepsPlace = price.getValue() == level.getPriceValue() && volume <= remainingVolume;
+        if (keepsPlace && volume == remainingVolume) { return order.makeTradableDTO(); } // Nothing to change.
+
+        order.amend(price, volume); // Checks the amend before changing anything.
+        level.reduceVolume(shownVolume - order.getDisplayedVolume()); // Keep the level total in step with the order.
+        changeCount++;
+        if (!keepsPlace) { // To the back of the queue at the new price:
+            level.remove(node);
+            if (level.isEmpty()) { removeLevel(level); }
+            order.showPeak(); // An iceberg order shows a full peak again, like a new order.
+            orderIndex.put(orderId, levelFor(price).add(order));
+        }
+        if (executions != null) { executions.amend(order, Math.max(0, remainingVolume - volume)); } // Reports the new price and volumes.
+        return order.makeTradableDTO();
+    }
+
     public OrderDTO cancel(String orderId) throws NullArgumentException, InvalidRangeException {
         if (orderId == null) { throw new NullArgumentException("Invalid orderId argument: null"); }
+        return cancel(OrderIds.parse(orderId));
+    }
 
-        // Search for an order with the given id under each price:
-        for (Price price : bookEntries.keySet()) {
-            for (Order order : bookEntries.get(price)) {
-                if (order.getId().equals(orderId)) { // If we find the order, we remove and cancel it.
-                    bookEntries.get(price).remove(order);
-                    // Cancel the remaining volume and zero out:
-                    order.setCancelledVolume(order.getRemainingVolume());
-                    order.setRemainingVolume(0);
-                    OrderDTO dto = order.makeTradableDTO();
-                    // Clean up, remove the price entry if it's empty:
-                    if (bookEntries.get(price).size() == 0) {
-                        bookEntries.remove(price);
-                    }
-                    return dto;
-                }
-            }
+    /**
+     * @param orderId the id of the order to cancel, see {@link OrderIds}.
+     * @return an {@link OrderDTO} for the cancelled order, or null if no such order is resting on this side.
+     */
+    public OrderDTO cancel(long orderId) throws InvalidRangeException {
+        OrderNode node = orderIndex.remove(orderId); // Look up the resting order by id.
+        if (node == null) { return null; }
+
+        PriceLevel level = node.level;
+        Order order = node.order;
+        level.remove(node);
+        changeCount++;
+        // Cancel the remaining volume and zero out:
+        int cancelledVolume = order.getRemainingVolume();
+        order.setCancelledVolume(cancelledVolume);
+        order.setRemainingVolume(0);
+        if (executions != null) { executions.cancel(order, cancelledVolume); }
+        // Clean up, remove the price entry if it's empty:
+        if (level.isEmpty()) {
+            removeLevel(level);
         }
 
-        return null;
+        OrderDTO dto = order.makeTradableDTO();
+        order.release(); // Back to the pool if it came from there, it's off the book now.
+        return dto;
+    }
+
+    /**
+     * @return true if price a ranks ahead of price b on this side (higher for BUY, lower for SELL).
+     */
+    private boolean isBetter(long a, long b) {
+        return (side == BookSide.BUY) ? a > b : a < b;
     }
 
-    private ArrayList<Price> getOrderedPrices() {
-        ArrayList<Price> prices = new ArrayList<>(bookEntries.keySet()); // Put arraylist so we can sort.
-        switch (side) { // Sort price keys in the appropriate order:
-            case BUY -> prices.sort(Collections.reverseOrder());
-            case SELL -> prices.sort(null);
+    /**
+     * @return the ladder index of the given price, or the index it would be inserted at if absent.
+     */
+    private int ladderIndexOf(long value) {
+        int low = 0;
+        int high = ladderSize - 1;
+        while (low <= high) { // Binary search over the worst to best ordering.
+            int mid = (low + high) >>> 1;
+            long midValue = ladder[mid];
+            if (midValue == value) { return mid; }
+            if (isBetter(value, midValue)) { low = mid + 1; } else { high = mid - 1; }
         }
+        return low;
+    }
 
-        return prices;
+    private void insertIntoLadder(long value) {
+        int index = ladderIndexOf(value);
+        if (index < ladderSize && ladder[index] == value) { return; } // Reuse a stale entry for the same price.
+        if (ladderSize == ladder.length) {
+            compactLadder();
+            if (ladderSize == ladder.length) { ladder = Arrays.copyOf(ladder, ladderSize << 1); }
+            index = ladderIndexOf(value);
+        }
+        System.arraycopy(ladder, index, ladder, index + 1, ladderSize - index);
+        ladder[index] = value;
+        ladderSize++;
     }
 
-    public Price topOfBookPrice() {
-        ArrayList<Price> prices = getOrderedPrices();
-        return (prices.size() > 0) ? prices.get(0) : null; // Return the top price of there is one.
+    /**
+     * Drop the stale entries for removed levels from the ladder, keeping the live prices in order.
+     */
+    private void compactLadder() {
+        int live = 0;
+        for (int i = 0; i < ladderSize; i++) {
+            if (bookEntries.get(ladder[i]) != null) { ladder[live++] = ladder[i]; }
+        }
+        ladderSize = live;
     }
 
-    public int topOfBookVolume() {
-        int totalVolume = 0;
-        ArrayList<Order> priceOrders = bookEntries.get(topOfBookPrice()); // Get orders for the top price.
-        if (priceOrders != null) { // Add up the volumes if the orders exist.
-            for (Order order : priceOrders) {
-                totalVolume += order.getRemainingVolume();
+    private void removeLevel(PriceLevel level) {
+        bookEntries.remove(level.getPrice().getValue());
+        if (level == topOfBook) { // Promote the next best live level to the top of the book.
+            topOfBook = null;
+            while (ladderSize > 0 && topOfBook == null) {
+                topOfBook = bookEntries.get(ladder[--ladderSize]);
             }
+            if (topOfBook != null) { ladderSize++; } // Keep the new top level's entry.
+        } else if (ladderSize - bookEntries.size() > Math.max(16, bookEntries.size())) {
+            compactLadder(); // Bound the stale entries to the number of live levels.
         }
+    }
+
+    public Price topOfBookPrice() {
+        return (topOfBook != null) ? topOfBook.getPrice() : null; // Return the top price if there is one.
+    }
 
-        return totalVolume;
+    public int topOfBookVolume() {
+        return (topOfBook != null) ? topOfBook.getVolume() : 0;
     }
 
+    /**
+     * @return the best price level, or null if the side is empty.
+     */
+    PriceLevel topLevel() { return topOfBook; }
+
     public void tradeOut(Price price, int tradeVolume) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
         if (price == null) { throw new NullArgumentException("Invalid price argument: null"); }
-        ArrayList<Order> orders = bookEntries.get(price);
-        if (orders == null) { throw new InvalidArgumentException("Invalid argument: no orders found for price " + price); }
+        PriceLevel level = bookEntries.get(price.getValue());
+        if (level == null) { throw new InvalidArgumentException("Invalid argument: no orders found for price " + price); }
+        tradeOut(level, tradeVolume);
+    }
+
+    /**
+     * Trade volume from the front of a level's queue, for a matching loop that already holds the level, so
+     * the price isn't looked up again. Only the volume orders show trades: once an iceberg order's shown
+     * volume has traded, it shows another peak from its reserve at the back of the queue. Removes the level
+     * once it's empty.
+     *
+     * @param level a level on this side.
+     * @param tradeVolume the volume to trade, no more than the level's volume.
+     * @return the best price level afterwards, or null if the side is now empty.
+     */
+    PriceLevel tradeOut(PriceLevel level, int tradeVolume) throws InvalidRangeException {
+        long price = level.getPriceValue();
+        changeCount++;
 
         // Continue to trade till we have traded all the volume requested:
         while (tradeVolume > 0) {
             // Trade as much volume as we can from the first order.
-            Order currentOrder = orders.get(0);
+            OrderNode node = level.first();
+            Order currentOrder = node.order;
             int orderRemainingVol = currentOrder.getRemainingVolume();
-            if (orderRemainingVol <= tradeVolume) { // If the requested volume is lager than the order we can fully fill this oder and remove it.
-                orders.remove(0);
-                currentOrder.setFilledVolume(currentOrder.getFilledVolume() + orderRemainingVol);
-                currentOrder.setRemainingVolume(0);
-                tradeVolume -= orderRemainingVol;
-                System.out.println("\tFILL: (" + side + " " + orderRemainingVol + ") " + currentOrder);
+            int orderShownVol = currentOrder.getDisplayedVolume(); // All of the remaining volume, unless it's an iceberg.
+            if (orderShownVol <= tradeVolume) { // If the requested volume is lager than the order we can fully fill this oder and remove it.
+                level.remove(node);
+                currentOrder.setFilledVolume(currentOrder.getFilledVolume() + orderShownVol);
+                currentOrder.setRemainingVolume(orderRemainingVol - orderShownVol);
+                tradeVolume -= orderShownVol;
+                boolean reserve = orderShownVol < orderRemainingVol;
+                EventLogManager.getInstance().getLog().fill(side, orderShownVol, reserve, currentOrder);
+                if (executions != null) { executions.fill(currentOrder, orderShownVol, price); }
+                if (reserve) { // Show the next peak of an iceberg order, behind the orders already at the price.
+                    currentOrder.showPeak();
+                    orderIndex.put(currentOrder.getOrderId(), level.add(currentOrder));
+                } else {
+                    orderIndex.remove(currentOrder.getOrderId());
+                    currentOrder.release(); // Back to the pool if it came from there, it's off the book now.
+                }
             } else { // If the requested volume is less than the order, we will just do a partial fill.
                 currentOrder.setFilledVolume(currentOrder.getFilledVolume() + tradeVolume);
                 currentOrder.setRemainingVolume(orderRemainingVol - tradeVolume);
-                System.out.println("\tPARTIAL FILL: (" + side + " " + tradeVolume + ") " + currentOrder);
+                level.reduceVolume(tradeVolume);
+                EventLogManager.getInstance().getLog().fill(side, tradeVolume, true, currentOrder);
+                if (executions != null) { executions.fill(currentOrder, tradeVolume, price); }
                 tradeVolume = 0;
             }
         }
 
-        if (orders.size() == 0) { // Clean up, remove the price entry if it's empty:
-            bookEntries.remove(price);
+        if (level.isEmpty()) { // Clean up, remove the price entry if it's empty:
+            removeLevel(level);
+        }
+        return topOfBook;
+    }
+
+    long getChangeCount() { return changeCount; }
+
+    /**
+     * Copy the aggregates of the best price levels, best first. Only the levels copied are visited.
+     *
+     * @param max the most levels to copy.
+     * @return the number of levels copied, up to max.
+     */
+    int copyLevels(int max, long[] prices, int[] volumes, int[] orderCounts) {
+        int copied = 0;
+        for (int i = ladderSize - 1; i >= 0 && copied < max; i--) {
+            PriceLevel level = bookEntries.get(ladder[i]);
+            if (level == null) { continue; } // Skip stale entries for removed levels.
+            prices[copied] = ladder[i];
+            volumes[copied] = level.getVolume();
+            orderCounts[copied] = level.getOrderCount();
+            copied++;
+        }
+        return copied;
+    }
+
+    /**
+     * Visit the resting orders, best price first and oldest first within a price.
+     */
+    void forEachOrder(Consumer<Order> action) {
+        for (int i = ladderSize - 1; i >= 0; i--) {
+            PriceLevel level = bookEntries.get(ladder[i]);
+            if (level == null) { continue; } // Skip stale entries for removed levels.
+            for (OrderNode node = level.first(); node != null; node = node.next) {
+                action.accept(node.order);
+            }
         }
     }
 
     @Override
     public String toString() {
-        ArrayList<Price> prices = getOrderedPrices();
         StringBuilder out = new StringBuilder("Side: " + side);
         // If this book side contains no entries, then use empty as a placeholder.
-        if (prices.size() == 0) { return out.append("\n\t<Empty>").toString(); }
-        // Format each price and the entries:
-        for (Price price: prices) {
-            out.append("\n\tPrice: ").append(price);
-            for (Order order: bookEntries.get(price)) {
-                out.append("\n\t\t").append(order);
+        if (bookEntries.isEmpty()) { return out.append("\n\t<Empty>").toString(); }
+        // Format each price and the entries, walking the ladder from the best price down:
+        for (int i = ladderSize - 1; i >= 0; i--) {
+            PriceLevel level = bookEntries.get(ladder[i]);
+            if (level == null) { continue; } // Skip stale entries for removed levels.
+            out.append("\n\tPrice: ").append(level.getPrice());
+            for (OrderNode node = level.first(); node != null; node = node.next) {
+                out.append("\n\t\t").append(node.order);
             }
         }
 
@@ -1,46 +1,390 @@
 package book;
 
+import exceptions.DataValidationException;
 import exceptions.InvalidArgumentException;
 import exceptions.InvalidOperationException;
 import exceptions.InvalidRangeException;
 import exceptions.NullArgumentException;
+import price.Price;
 import tradable.Order;
 import tradable.OrderDTO;
+import tradable.ProductTable;
+import tradable.SymbolRegistry;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public final class ProductManager {
 
-    /** Singleton class instance. */
-    private static ProductManager instance;
-    /** Store books mapping the product symbol to the ProductBook.*/
-    private final HashMap<String, ProductBook> productBooks;
+    /** Singleton class instance, created eagerly so getInstance() is safe to call from any thread. */
+    private static final ProductManager instance = new ProductManager();
+    /**
+     * Store books mapping the product id (see {@link SymbolRegistry}) to the ProductBook. Symbols are resolved
+     * to their id once, so finding the book for an order doesn't hash the symbol.
+     */
+    private final ProductTable<ProductBook> productBooks;
+    /**
+     * Dedicated matching threads mapping the product id to a single thread executor, whose task queue is
+     * the inbound order queue for that product. Each thread is the only writer of its ProductBook, so books
+     * for different symbols match in parallel. Empty until {@link #startMatchingThreads()} is called, and
+     * until then orders are matched on the caller's thread.
+     */
+    private final ProductTable<ExecutorService> matchingThreads;
+    private volatile boolean threaded = false;
 
-    public static ProductManager getInstance() {
-        // Create a new instance if the singleton instance doesn't already exist:
-        if (instance == null) {
-            instance = new ProductManager();
+    public static ProductManager getInstance() { return instance; }
+
+    private ProductManager() {
+        productBooks = new ProductTable<>();
+        matchingThreads = new ProductTable<>();
+    }
+
+    /**
+     * @param symbol the product symbol.
+     * @return the product's id, see {@link SymbolRegistry}.
+     */
+    public synchronized int addProduct(String symbol) throws NullArgumentException, InvalidArgumentException {
+        if (symbol == null) { throw new NullArgumentException("Invalid product symbol argument: null"); }
+        ProductBook book = new ProductBook(symbol);
+        productBooks.put(book.getProductId(), book);
+        if (threaded && matchingThreads.get(book.getProductId()) == null) { startMatchingThread(book.getProductId()); }
+        return book.getProductId();
+    }
+
+    /**
+     * Switch to multi-core matching mode, pinning each product symbol to its own matching thread. Orders and
+     * cancels submitted from any thread are queued to the thread for their symbol and applied in arrival order.
+     */
+    public synchronized void startMatchingThreads() {
+        if (threaded) { return; }
+        for (int id = 0; id < productBooks.capacity(); id++) {
+            if (productBooks.get(id) != null) { startMatchingThread(id); }
         }
-        return instance;
+        threaded = true;
     }
 
-    private ProductManager() { productBooks = new HashMap<>(); }
+    /**
+     * Leave multi-core matching mode, waiting for every queued order and cancel to be applied before the
+     * matching threads are stopped. Later submissions are matched on the caller's thread again.
+     *
+     * @throws InterruptedException if interrupted while waiting for the queues to drain.
+     */
+    public synchronized void stopMatchingThreads() throws InterruptedException {
+        if (!threaded) { return; }
+        threaded = false;
+        for (int id = 0; id < matchingThreads.capacity(); id++) {
+            ExecutorService executor = matchingThreads.get(id);
+            if (executor != null) { executor.shutdown(); } // Queued work is still run before the thread exits.
+        }
+        for (int id = 0; id < matchingThreads.capacity(); id++) {
+            ExecutorService executor = matchingThreads.get(id);
+            if (executor != null) { executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS); }
+        }
+        matchingThreads.clear();
+    }
 
-    public void addProduct(String symbol) throws NullArgumentException, InvalidArgumentException {
+    /**
+     * Run an action while every product book is paused between requests: requests already being applied
+     * finish first, and later ones (and new products) wait until the action is done. Meanwhile the books, and
+     * the users' fills and cancels, reflect exactly the requests recorded in the journal so far, so the action
+     * can copy them consistently (ex: for a snapshot). Keep it short, as all matching stops.
+     *
+     * @param action the action to run.
+     * @return the action's result.
+     */
+    public synchronized <T> T runPaused(Supplier<T> action) {
+        int capacity = productBooks.capacity(); // Fixed while this holds the lock, addProduct() waits.
+        int locked = 0;
+        try {
+            for (; locked < capacity; locked++) { // Always in id order.
+                ProductBook pb = productBooks.get(locked);
+                if (pb != null) { pb.lock.lock(); }
+            }
+            return action.get();
+        } finally {
+            for (int id = 0; id < locked; id++) {
+                ProductBook pb = productBooks.get(id);
+                if (pb != null) { pb.lock.unlock(); }
+            }
+        }
+    }
+
+    private void startMatchingThread(int productId) {
+        String symbol = SymbolRegistry.getInstance().symbolOf(productId);
+        matchingThreads.put(productId, Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "matching-" + symbol);
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    /**
+     * @param symbol a product symbol.
+     * @return the ProductBook for the symbol, or null if the product doesn't exist.
+     * @throws NullArgumentException if the symbol is null.
+     */
+    public ProductBook getProductBook(String symbol) throws NullArgumentException {
         if (symbol == null) { throw new NullArgumentException("Invalid product symbol argument: null"); }
-        productBooks.put(symbol, new ProductBook(symbol));
+        return productBooks.get(SymbolRegistry.getInstance().idOf(symbol));
+    }
+
+    /**
+     * @param productId a product id, see {@link SymbolRegistry}.
+     * @return the ProductBook for the product, or null if the product doesn't exist.
+     */
+    public ProductBook getProductBook(int productId) {
+        return productBooks.get(productId);
     }
 
     public String getRandomProduct() throws InvalidOperationException {
-        if (productBooks.size() == 0) { throw new InvalidOperationException("ProductManager is empty with no product book symbols to return"); }
-        String[] symbols = productBooks.keySet().toArray(new String[0]); // Get all the symbols in an array.
-        return symbols[(int)(Math.random() * symbols.length)]; // Pick a random symbol from the array.
+        return productBooks.get(getRandomProductId()).getProduct();
+    }
+
+    /**
+     * @return the id of a random product, see {@link SymbolRegistry}.
+     * @throws InvalidOperationException if there are no products.
+     */
+    public int getRandomProductId() throws InvalidOperationException {
+        int count = 0;
+        for (int id = 0; id < productBooks.capacity(); id++) {
+            if (productBooks.get(id) != null) { count++; }
+        }
+        if (count == 0) { throw new InvalidOperationException("ProductManager is empty with no product book symbols to return"); }
+        int pick = (int)(Math.random() * count); // Pick a random book, then return its id.
+        for (int id = 0; ; id++) {
+            if (productBooks.get(id) != null && pick-- == 0) { return id; }
+        }
     }
 
     public OrderDTO addOrder(Order order) throws NullArgumentException, InvalidArgumentException, InvalidRangeException {
+        if (!threaded) { return addToBook(order); }
+        return await(addOrderAsync(order)); // Still let the matching thread be the only writer of the book.
+    }
+
+    public OrderDTO cancel(OrderDTO order) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        if (order == null) { throw new NullArgumentException("Invalid Order argument: null"); }
+        return cancel(order.product, order.side, order.orderId);
+    }
+
+    /**
+     * Cancel a resting order by its id, for callers that don't keep an {@link OrderDTO} for it (ex: pooled orders).
+     *
+     * @param product the product symbol the order was placed for.
+     * @param side the book side the order rests on.
+     * @param orderId the id of the order, see {@link tradable.OrderIds}.
+     * @return an {@link OrderDTO} for the cancelled order, or null if it was no longer resting.
+     */
+    public OrderDTO cancel(String product, BookSide side, long orderId) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        if (product == null) { throw new NullArgumentException("Invalid product argument: null"); }
+        return cancel(SymbolRegistry.getInstance().idOf(product), product, side, orderId);
+    }
+
+    /**
+     * Cancel a resting order by its id, for a product already resolved to its id (see {@link SymbolRegistry}).
+     *
+     * @return an {@link OrderDTO} for the cancelled order, or null if it was no longer resting.
+     */
+    public OrderDTO cancel(int productId, BookSide side, long orderId) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        return cancel(productId, SymbolRegistry.getInstance().symbolOf(productId), side, orderId);
+    }
+
+    private OrderDTO cancel(int productId, String product, BookSide side, long orderId) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        if (!threaded) { return cancelInBook(productId, product, side, orderId); }
+        return await(submit(productId, () -> cancelInBook(productId, product, side, orderId)));
+    }
+
+    /**
+     * Amend a resting order's price and remaining volume in place, see {@link ProductBook#amend}.
+     *
+     * @param order the order to amend.
+     * @param price the new price.
+     * @param volume the new remaining volume.
+     * @return an {@link OrderDTO} for the amended order, before any trades, or null if it was no longer resting.
+     */
+    public OrderDTO amend(OrderDTO order, Price price, int volume) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        if (order == null) { throw new NullArgumentException("Invalid Order argument: null"); }
+        return amend(order.product, order.side, order.orderId, price, volume);
+    }
+
+    /**
+     * Amend a resting order by its id, for callers that don't keep an {@link OrderDTO} for it (ex: pooled orders).
+     *
+     * @return an {@link OrderDTO} for the amended order, before any trades, or null if it was no longer resting.
+     */
+    public OrderDTO amend(String product, BookSide side, long orderId, Price price, int volume) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        if (product == null) { throw new NullArgumentException("Invalid product argument: null"); }
+        int productId = SymbolRegistry.getInstance().idOf(product);
+        if (!threaded) { return amendInBook(productId, product, side, orderId, price, volume); }
+        return await(submit(productId, () -> amendInBook(productId, product, side, orderId, price, volume)));
+    }
+
+    /**
+     * Add a batch of orders that may be for several products. The orders are grouped by product and each
+     * group is added to its book as one batch (see {@link ProductBook#addOrders}), so each book reports its
+     * market once. In multi-core matching mode each group is queued to its product's matching thread as one
+     * request, and the groups are matched in parallel.
+     *
+     * @param orders the orders to add, in arrival order.
+     * @return an {@link OrderDTO} for each order as it was added, before any trades, in the same order.
+     * @throws NullArgumentException if the list or any order in it is null.
+     * @throws InvalidArgumentException if an order's product doesn't exist, in which case none are added.
+     */
+    public List<OrderDTO> addOrders(List<Order> orders) throws NullArgumentException, InvalidArgumentException, InvalidRangeException {
+        if (orders == null) { throw new NullArgumentException("Invalid orders argument: null"); }
+        Map<ProductBook, List<Integer>> groups = new LinkedHashMap<>(); // Indexes into the batch, by book.
+        for (int i = 0; i < orders.size(); i++) {
+            Order order = orders.get(i);
+            if (order == null) { throw new NullArgumentException("Invalid Order argument: null"); }
+            ProductBook pb = productBooks.get(order.getProductId());
+            if (pb == null) { throw new InvalidArgumentException("Invalid Order argument: the orders product symbol "+ order.getProduct() +" does not exist"); }
+            groups.computeIfAbsent(pb, k -> new ArrayList<>()).add(i);
+        }
+
+        return runGroups(orders, groups, ProductBook::addOrders);
+    }
+
+    /**
+     * Cancel a batch of resting orders that may be for several products, grouped by product like
+     * {@link #addOrders(List)}.
+     *
+     * @param orders the orders to cancel.
+     * @return an {@link OrderDTO} for each cancelled order in the same order, or null for any no longer resting.
+     * @throws NullArgumentException if the list or any order in it is null.
+     * @throws InvalidArgumentException if an order's product doesn't exist, in which case none are cancelled.
+     */
+    public List<OrderDTO> cancelOrders(List<OrderDTO> orders) throws NullArgumentException, InvalidArgumentException, InvalidRangeException {
+        if (orders == null) { throw new NullArgumentException("Invalid orders argument: null"); }
+        Map<ProductBook, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < orders.size(); i++) {
+            OrderDTO order = orders.get(i);
+            if (order == null) { throw new NullArgumentException("Invalid OrderDTO argument: null"); }
+            if (order.side == null) { throw new NullArgumentException("Invalid BookSide argument: null"); }
+            ProductBook pb = productBooks.get(SymbolRegistry.getInstance().idOf(order.product));
+            if (pb == null) { throw new InvalidArgumentException("Invalid OrderDTO argument: the orders product symbol " + order.product + " does not exist"); }
+            groups.computeIfAbsent(pb, k -> new ArrayList<>()).add(i);
+        }
+
+        return runGroups(orders, groups, ProductBook::cancelOrders);
+    }
+
+    /** A batch operation on one product book. */
+    private interface BatchTask<T> {
+        List<OrderDTO> run(ProductBook book, List<T> batch) throws DataValidationException;
+    }
+
+    /**
+     * Run a batch operation on each book's share of a batch, on the book's matching thread in multi-core
+     * matching mode, and put the results back in the batch's order.
+     */
+    private <T> List<OrderDTO> runGroups(List<T> items, Map<ProductBook, List<Integer>> groups, BatchTask<T> task)
+            throws NullArgumentException, InvalidArgumentException, InvalidRangeException {
+        OrderDTO[] results = new OrderDTO[items.size()];
+        List<CompletableFuture<List<OrderDTO>>> futures = new ArrayList<>(groups.size());
+        for (Map.Entry<ProductBook, List<Integer>> group : groups.entrySet()) {
+            ProductBook pb = group.getKey();
+            List<T> batch = new ArrayList<>(group.getValue().size());
+            for (int i : group.getValue()) { batch.add(items.get(i)); }
+            futures.add(submit(pb.getProductId(), () -> task.run(pb, batch)));
+        }
+
+        int g = 0;
+        for (List<Integer> indexes : groups.values()) { // Every group is already queued, so they match in parallel.
+            List<OrderDTO> done = await(futures.get(g++));
+            for (int i = 0; i < indexes.size(); i++) { results[indexes.get(i)] = done.get(i); }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Submit an order to the matching thread for its product symbol without waiting for it to be matched.
+     *
+     * @param order the order to add.
+     * @return a future completed with the {@link OrderDTO} for the added order once it has been matched, or
+     * completed exceptionally with the validation exception that {@link #addOrder(Order)} would throw.
+     */
+    public CompletableFuture<OrderDTO> addOrderAsync(Order order) {
+        if (order == null) { return CompletableFuture.failedFuture(new NullArgumentException("Invalid Order argument: null")); }
+        return submit(order.getProductId(), () -> addToBook(order));
+    }
+
+    /**
+     * Submit a cancel to the matching thread for the order's product symbol without waiting for it to be applied.
+     *
+     * @param order the order to cancel.
+     * @return a future completed with the {@link OrderDTO} for the cancelled order (null if it was no longer
+     * resting), or completed exceptionally with the validation exception that {@link #cancel(OrderDTO)} would throw.
+     */
+    public CompletableFuture<OrderDTO> cancelAsync(OrderDTO order) {
+        if (order == null) { return CompletableFuture.failedFuture(new NullArgumentException("Invalid Order argument: null")); }
+        return cancelAsync(order.product, order.side, order.orderId);
+    }
+
+    /**
+     * Submit a cancel by order id to the matching thread for the product symbol, see {@link #cancelAsync(OrderDTO)}.
+     */
+    public CompletableFuture<OrderDTO> cancelAsync(String product, BookSide side, long orderId) {
+        if (product == null) { return CompletableFuture.failedFuture(new NullArgumentException("Invalid product argument: null")); }
+        int productId = SymbolRegistry.getInstance().idOf(product);
+        return submit(productId, () -> cancelInBook(productId, product, side, orderId));
+    }
+
+    /** A book operation that may fail validation, run on a product's matching thread. */
+    private interface BookTask<T> {
+        T run() throws DataValidationException;
+    }
+
+    private <T> CompletableFuture<T> submit(int productId, BookTask<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Runnable work = () -> {
+            try {
+                future.complete(task.run());
+            } catch (DataValidationException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        };
+
+        ExecutorService executor = threaded ? matchingThreads.get(productId) : null;
+        if (executor != null) {
+            try {
+                executor.execute(work);
+            } catch (RejectedExecutionException e) { // Raced with stopMatchingThreads().
+                future.completeExceptionally(e);
+            }
+        } else { // Not in threaded mode, or an unknown symbol, which the book lookup will reject.
+            work.run();
+        }
+        return future;
+    }
+
+    /**
+     * Wait for a submitted book operation, rethrowing any validation failure as the checked exception.
+     */
+    private static <T> T await(CompletableFuture<T> future) throws NullArgumentException, InvalidArgumentException, InvalidRangeException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof NullArgumentException nae) { throw nae; }
+            if (cause instanceof InvalidArgumentException iae) { throw iae; }
+            if (cause instanceof InvalidRangeException ire) { throw ire; }
+            throw e;
+        }
+    }
+
+    private OrderDTO addToBook(Order order) throws NullArgumentException, InvalidArgumentException, InvalidRangeException {
         if (order == null) { throw new NullArgumentException("Invalid Order argument: null"); }
         // Call and add to the product book for the relevant symbol.
-        ProductBook pb = productBooks.get(order.getProduct());
+        ProductBook pb = productBooks.get(order.getProductId());
         if (pb != null) { // Ensure it exists first.
             return pb.add(order);
         } else {
@@ -48,25 +392,36 @@ public final class ProductManager {
         }
     }
 
-    public OrderDTO cancel(OrderDTO order) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
-        if (order == null) { throw new NullArgumentException("Invalid Order argument: null"); }
+    private OrderDTO cancelInBook(int productId, String product, BookSide side, long orderId) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
         // Call to remove from the product book with the relevant symbol.
-        ProductBook pb = productBooks.get(order.product);
+        ProductBook pb = productBooks.get(productId);
+        if (pb != null) { // Ensure it exists first.
+            return pb.cancel(side, orderId);
+        } else {
+            throw new InvalidArgumentException("Invalid OrderDTO argument: the orders product symbol " + product + " does not exist");
+        }
+    }
+
+    private OrderDTO amendInBook(int productId, String product, BookSide side, long orderId, Price price, int volume) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        ProductBook pb = productBooks.get(productId);
         if (pb != null) { // Ensure it exists first.
-            return pb.cancel(order.side, order.id);
+            return pb.amend(side, orderId, price, volume);
         } else {
-            throw new InvalidArgumentException("Invalid OrderDTO argument: the orders product symbol " + order.product + " does not exist");
+            throw new InvalidArgumentException("Invalid OrderDTO argument: the orders product symbol " + product + " does not exist");
         }
     }
 
     @Override
     public String toString() {
         StringBuilder out = new StringBuilder("ProductBooks:"); // Add ProductBooks section header.
-        // If there are no ProductBooks, then use empty placeholder.
-        if (productBooks.size() == 0) { return out.append(" <Empty>\n").toString(); }
-        for (ProductBook pb : productBooks.values()) { // Add all ProductBook summaries.
+        int count = 0;
+        for (int id = 0; id < productBooks.capacity(); id++) { // Add all ProductBook summaries.
+            ProductBook pb = productBooks.get(id);
+            if (pb == null) { continue; }
             out.append("\n\n").append(pb);
+            count++;
         }
+        if (count == 0) { out.append(" <Empty>\n"); } // If there are no ProductBooks, then use empty placeholder.
 
         return out.toString();
     }
@@ -0,0 +1,43 @@
+package journal;
+
+import exceptions.NullArgumentException;
+
+public final class JournalManager {
+
+    /** Singleton class instance, created eagerly so getInstance() is safe to call from any thread. */
+    private static final JournalManager instance = new JournalManager();
+
+    /** The journal product books record their requests in, or null when journaling is off (the default). */
+    private volatile OrderJournal journal;
+
+    public static JournalManager getInstance() { return instance; }
+
+    private JournalManager() {}
+
+    /**
+     * @return the journal in use, or null if journaling is off.
+     */
+    public OrderJournal getJournal() { return journal; }
+
+    /**
+     * Start recording every add, cancel and fill in a journal, closing any journal used before.
+     *
+     * @param journal the journal to use from now on.
+     * @throws NullArgumentException if the journal is null.
+     */
+    public synchronized void setJournal(OrderJournal journal) throws NullArgumentException {
+        if (journal == null) { throw new NullArgumentException("Invalid OrderJournal argument: null"); }
+        swapJournal(journal);
+    }
+
+    /**
+     * Turn journaling off, closing the journal in use after everything recorded so far is written.
+     */
+    public synchronized void disable() { swapJournal(null); }
+
+    private void swapJournal(OrderJournal journal) {
+        OrderJournal previous = this.journal;
+        this.journal = journal;
+        if (previous != null && previous != journal) { previous.close(); }
+    }
+}
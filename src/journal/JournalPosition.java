@@ -0,0 +1,24 @@
+package journal;
+
+/**
+ * A place in an {@link OrderJournal} file, between two records, taken with {@link OrderJournal#position()}.
+ * Held as the start of a batch plus a count of records to pass over from there, as the records appended last
+ * may not have been written in a batch yet when the position is taken.
+ */
+public final class JournalPosition {
+
+    /** The end of the last batch written when the position was taken, where the batches after it start. */
+    public final long offset;
+    /** The number of records from the offset that come before the position. */
+    public final long skip;
+
+    JournalPosition(long offset, long skip) {
+        this.offset = offset;
+        this.skip = skip;
+    }
+
+    @Override
+    public String toString() {
+        return "offset " + offset + " + " + skip + " records";
+    }
+}
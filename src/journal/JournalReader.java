@@ -0,0 +1,106 @@
+package journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads an {@link OrderJournal} file one committed batch at a time, checking each batch's checksum. Reading
+ * stops at the first batch that is cut short or doesn't match its checksum, which is where a crash
+ * interrupted the last write; everything before it is intact.
+ */
+final class JournalReader {
+
+    private final FileChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(OrderJournal.BATCH_HEADER_SIZE);
+    private ByteBuffer batch = ByteBuffer.allocate(OrderJournal.DEFAULT_BUFFER_SIZE);
+    private final CRC32C crc = new CRC32C();
+    /** The end of the last intact batch. */
+    private long position;
+    private int recordCount;
+    /** The version in the file header. */
+    private final int version;
+
+    /**
+     * @throws IOException if the file doesn't start with a journal header.
+     */
+    JournalReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer fileHeader = ByteBuffer.allocate(OrderJournal.FILE_HEADER_SIZE);
+        if (read(fileHeader, 0) < OrderJournal.FILE_HEADER_SIZE) { throw new IOException("Not an order journal: too short"); }
+        fileHeader.flip();
+        if (fileHeader.getInt() != OrderJournal.MAGIC) { throw new IOException("Not an order journal: bad magic number"); }
+        version = fileHeader.getInt();
+        if (version < 1 || version > OrderJournal.VERSION) { // Older versions only lack some record types.
+            throw new IOException("Unsupported order journal version " + version + ": this reader supports versions 1 to " + OrderJournal.VERSION);
+        }
+        position = OrderJournal.FILE_HEADER_SIZE;
+    }
+
+    /**
+     * @return the version in the file header, no newer than {@link OrderJournal#VERSION}.
+     */
+    int version() { return version; }
+
+    /**
+     * Continue reading from a batch other than the first (ex: the start of a {@link JournalPosition}).
+     *
+     * @param offset the file offset of a batch header.
+     * @throws IOException if the offset is past the end of the file.
+     */
+    void seek(long offset) throws IOException {
+        if (offset < OrderJournal.FILE_HEADER_SIZE || offset > channel.size()) {
+            throw new IOException("Order journal position " + offset + " is outside the file, of " + channel.size() + " bytes");
+        }
+        position = offset;
+    }
+
+    /**
+     * @return the records of the next batch, from the buffer's position to its limit, or null if there are no
+     * more intact batches. The buffer is reused by the next call.
+     */
+    ByteBuffer next() throws IOException {
+        header.clear();
+        if (read(header, position) < OrderJournal.BATCH_HEADER_SIZE) { return null; }
+        header.flip();
+        int length = header.getInt();
+        int count = header.getInt();
+        int checksum = header.getInt();
+        long start = position + OrderJournal.BATCH_HEADER_SIZE;
+        if (length <= 0 || count <= 0 || length > channel.size() - start) { return null; } // Torn or garbage.
+
+        if (batch.capacity() < length) { batch = ByteBuffer.allocate(Integer.highestOneBit(length) << 1); }
+        batch.clear().limit(length);
+        if (read(batch, start) < length) { return null; }
+        batch.flip();
+        crc.reset();
+        crc.update(batch);
+        batch.rewind();
+        if ((int) crc.getValue() != checksum) { return null; }
+
+        position = start + length;
+        recordCount = count;
+        return batch;
+    }
+
+    /**
+     * @return the number of records in the batch last returned by {@link #next()}.
+     */
+    int recordCount() { return recordCount; }
+
+    /**
+     * @return the end of the last intact batch read, where new batches should be written.
+     */
+    long validEnd() { return position; }
+
+    private int read(ByteBuffer buffer, long at) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, at + total);
+            if (n < 0) { break; }
+            total += n;
+        }
+        return total;
+    }
+}
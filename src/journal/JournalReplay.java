@@ -0,0 +1,316 @@
+package journal;
+
+import book.BookSide;
+import book.ProductBook;
+import book.ProductManager;
+import exceptions.InvalidOperationException;
+import exceptions.InvalidRangeException;
+import exceptions.TradingApplicationException;
+import price.PriceFactory;
+import tradable.Order;
+import tradable.OrderDTO;
+import tradable.OrderIds;
+import user.User;
+import user.UserManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Rebuilds the product books and users from an {@link OrderJournal}, for a restart. Every journaled add,
+ * cancel and amend is applied again, in the order it was applied originally, so the books match and
+ * regenerate the same fills, which update the users' orders and positions as they did the first time. The
+ * journaled fills are only counted. Products and users that don't exist yet are created.
+ * <br><br>
+ * Replay applies requests without publishing each market update, then publishes every book's market once at
+ * the end. Turn the event log off first to skip logging the replayed fills.
+ * <br><br>
+ * To bound the time a restart takes, {@link #recover(Path, Path)} first restores the latest {@link Snapshot}
+ * and then only replays the records journaled after it was taken.
+ */
+public final class JournalReplay {
+
+    /** What a replay did. */
+    public static final class Result {
+        /** The snapshot restored before replaying, or null if there wasn't one. */
+        public final Path snapshot;
+        /** The resting orders restored from the snapshot. */
+        public final long restoredOrders;
+        public final long batches;
+        public final long records;
+        public final long adds;
+        public final long cancels;
+        public final long amends;
+        /** Amends skipped because they were rejected when first made, in journals written before those were left out. */
+        public final long rejected;
+        public final long fills;
+        /** The highest order id replayed. */
+        public final long lastOrderId;
+        public final long elapsedNanos;
+
+        Result(Path snapshot, long restoredOrders, long batches, long records, long adds, long cancels, long amends,
+               long rejected, long fills, long lastOrderId, long elapsedNanos) {
+            this.snapshot = snapshot;
+            this.restoredOrders = restoredOrders;
+            this.batches = batches;
+            this.records = records;
+            this.adds = adds;
+            this.cancels = cancels;
+            this.amends = amends;
+            this.rejected = rejected;
+            this.fills = fills;
+            this.lastOrderId = lastOrderId;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            String replayed = String.format(Locale.ROOT, "%d records (%d adds, %d cancels, %d amends, %d fills) in %d batches, %.3fs",
+                    records, adds, cancels, amends, fills, batches, elapsedNanos / 1e9);
+            if (rejected > 0) { replayed += ", skipped " + rejected + " rejected amends"; }
+            if (snapshot != null) { return "Restored " + restoredOrders + " resting orders from " + snapshot + " and replayed " + replayed; }
+            return String.format(Locale.ROOT, "Replayed %s, %.0f records/sec", replayed, (elapsedNanos == 0) ? 0 : records * 1e9 / elapsedNanos);
+        }
+    }
+
+    private JournalReplay() {} // Don't let anyone create an instance of this class.
+
+    /**
+     * Replay a journal into the {@link ProductManager} and {@link UserManager}. Replay stops at the end of the
+     * last intact batch. Afterwards new order ids continue from the last replayed one.
+     *
+     * @param path the journal file.
+     * @return the counts of what was replayed.
+     * @throws IOException if the file can't be read, or isn't a journal.
+     * @throws InvalidOperationException if a journal is in use, which would record the replay again.
+     * @throws TradingApplicationException if a journaled request can't be applied.
+     */
+    public static Result replay(Path path) throws IOException, TradingApplicationException {
+        checkJournalOff();
+        long start = System.nanoTime();
+        Replayer replayer = new Replayer();
+        replayer.replay(path, null);
+        replayer.finish();
+        return replayer.result(null, start);
+    }
+
+    /**
+     * Recover the {@link ProductManager} and {@link UserManager} after a restart: restore the latest snapshot
+     * in a directory, then replay only the journal records after the position it was taken at. With no
+     * snapshot yet, the whole journal is replayed.
+     *
+     * @param snapshotDir the directory the snapshots were written to.
+     * @param journal the journal written while the snapshots were taken, or null to restore the snapshot alone.
+     * @return the counts of what was restored and replayed.
+     * @throws IOException if a file can't be read, or the snapshot and journal don't line up.
+     * @throws InvalidOperationException if a journal is in use, or a book to restore isn't empty.
+     * @throws TradingApplicationException if a snapshot order or journaled request can't be applied.
+     */
+    public static Result recover(Path snapshotDir, Path journal) throws IOException, TradingApplicationException {
+        checkJournalOff();
+        long start = System.nanoTime();
+        Replayer replayer = new Replayer();
+        Path snapshot = Snapshot.latest(snapshotDir);
+        JournalPosition from = null;
+        if (snapshot != null) {
+            from = Snapshot.restore(snapshot, replayer);
+            if (from == null && journal != null) {
+                throw new IOException("Snapshot " + snapshot + " was taken while journaling was off, so the journal can't be lined up with it");
+            }
+        }
+        if (journal != null) { replayer.replay(journal, from); }
+        replayer.finish();
+        return replayer.result(snapshot, start);
+    }
+
+    private static void checkJournalOff() throws InvalidOperationException {
+        if (JournalManager.getInstance().getJournal() != null) {
+            throw new InvalidOperationException("Turn journaling off before replaying a journal, or the replay would be journaled again");
+        }
+    }
+
+    /** The state of one recovery: the journal's product ids mapped to books, and the users seen. */
+    static final class Replayer {
+        private static final BookSide[] SIDES = BookSide.values();
+
+        /** Books by the product id used in the journal, which may differ from the id in this run. */
+        private ProductBook[] books = new ProductBook[16];
+        /** Users by their 3 letter id, packed as an index from 0 to 26^3 - 1. */
+        private final User[] users = new User[26 * 26 * 26];
+        private final char[] userId = new char[3];
+        private final byte[] symbol = new byte[255];
+        /** Records at the start of the journal to pass over, as the restored snapshot already includes them. */
+        private long skip;
+        long restoredOrders, batches, records, adds, cancels, amends, rejected, fills, lastOrderId;
+
+        void replay(Path path, JournalPosition from) throws IOException, TradingApplicationException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                JournalReader reader = new JournalReader(channel);
+                if (from != null) {
+                    reader.seek(from.offset);
+                    skip = from.skip;
+                }
+                ByteBuffer batch;
+                while ((batch = reader.next()) != null) {
+                    int count = 0;
+                    while (batch.hasRemaining()) {
+                        apply(batch);
+                        count++;
+                    }
+                    if (count != reader.recordCount()) {
+                        throw new IOException("Corrupt order journal: a batch of " + reader.recordCount() + " records held " + count);
+                    }
+                    batches++;
+                }
+            }
+            if (skip > 0) { throw new IOException("Order journal " + path + " ends before the snapshot it was restored after"); }
+        }
+
+        private void apply(ByteBuffer in) throws IOException, TradingApplicationException {
+            byte type = in.get();
+            if (skip > 0) {
+                skip--;
+                if (type != OrderJournal.SYMBOL) { // Product definitions are still needed by later records.
+                    in.position(in.position() + switch (type) {
+                        case OrderJournal.ADD -> OrderJournal.ADD_SIZE;
+                        case OrderJournal.CANCEL -> OrderJournal.CANCEL_SIZE;
+                        case OrderJournal.FILL -> OrderJournal.FILL_SIZE;
+                        case OrderJournal.AMEND -> OrderJournal.AMEND_SIZE;
+                        case OrderJournal.ICEBERG -> OrderJournal.ICEBERG_SIZE;
+                        default -> throw new IOException("Corrupt order journal: unknown record type " + type);
+                    });
+                    return;
+                }
+            } else {
+                records++;
+            }
+            switch (type) {
+                case OrderJournal.SYMBOL -> {
+                    int productId = in.getInt();
+                    int length = in.get() & 0xFF;
+                    in.get(symbol, 0, length);
+                    defineBook(productId, new String(symbol, 0, length, StandardCharsets.US_ASCII));
+                }
+                case OrderJournal.ADD, OrderJournal.ICEBERG -> {
+                    long orderId = in.getLong();
+                    ProductBook book = book(in.getInt());
+                    BookSide side = side(in.get());
+                    long price = in.getLong();
+                    int volume = in.getInt();
+                    User user = user(in);
+                    Order order = (type == OrderJournal.ICEBERG)
+                            ? Order.iceberg(user.getUserId(), book.getProduct(), side, PriceFactory.makePrice(price), volume, in.getInt(), orderId)
+                            : new Order(user.getUserId(), book.getProduct(), side, PriceFactory.makePrice(price), volume, orderId);
+                    user.addOrder(book.addWithoutMarketUpdate(order));
+                    lastOrderId = Math.max(lastOrderId, orderId);
+                    adds++;
+                }
+                case OrderJournal.CANCEL -> {
+                    long orderId = in.getLong();
+                    ProductBook book = book(in.getInt());
+                    OrderDTO cancelled = book.cancelWithoutMarketUpdate(side(in.get()), orderId);
+                    if (cancelled != null) {
+                        User user = UserManager.getInstance().getUser(cancelled.user);
+                        if (user != null) { user.addOrder(cancelled); }
+                    }
+                    cancels++;
+                }
+                case OrderJournal.AMEND -> {
+                    long orderId = in.getLong();
+                    ProductBook book = book(in.getInt());
+                    BookSide side = side(in.get());
+                    long price = in.getLong();
+                    int volume = in.getInt();
+                    OrderDTO amended;
+                    try {
+                        amended = book.amendWithoutMarketUpdate(side, orderId, PriceFactory.makePrice(price), volume);
+                    } catch (InvalidRangeException e) { // Rejected the first time too, without changing the book.
+                        rejected++;
+                        return;
+                    }
+                    if (amended != null) {
+                        User user = UserManager.getInstance().getUser(amended.user);
+                        if (user != null) { user.addOrder(amended); }
+                    }
+                    amends++;
+                }
+                case OrderJournal.FILL -> {
+                    in.position(in.position() + OrderJournal.FILL_SIZE); // Regenerated by the adds, just counted.
+                    fills++;
+                }
+                default -> throw new IOException("Corrupt order journal: unknown record type " + type);
+            }
+        }
+
+        /**
+         * Map a journal product id to the book for its symbol, adding the product if it doesn't exist yet.
+         *
+         * @return the book.
+         */
+        ProductBook defineBook(int productId, String symbol) throws IOException, TradingApplicationException {
+            if (productId < 0) { throw new IOException("Corrupt order journal: product id " + productId); }
+            ProductBook book = ProductManager.getInstance().getProductBook(symbol);
+            if (book == null) { book = ProductManager.getInstance().getProductBook(ProductManager.getInstance().addProduct(symbol)); }
+            if (productId >= books.length) { books = Arrays.copyOf(books, Math.max(productId + 1, books.length * 2)); }
+            books[productId] = book;
+            return book;
+        }
+
+        private ProductBook book(int productId) throws IOException {
+            ProductBook book = (productId >= 0 && productId < books.length) ? books[productId] : null;
+            if (book == null) { throw new IOException("Corrupt order journal: product id " + productId + " used before it was defined"); }
+            return book;
+        }
+
+        private static BookSide side(byte ordinal) throws IOException {
+            if (ordinal < 0 || ordinal >= SIDES.length) { throw new IOException("Corrupt order journal: book side " + ordinal); }
+            return SIDES[ordinal];
+        }
+
+        private User user(ByteBuffer in) throws IOException, TradingApplicationException {
+            int index = 0;
+            for (int i = 0; i < 3; i++) {
+                char c = (char) in.get();
+                if (c < 'A' || c > 'Z') { throw new IOException("Corrupt order journal: user id character " + (int) c); }
+                userId[i] = c;
+                index = index * 26 + (c - 'A');
+            }
+            User user = users[index];
+            if (user == null) {
+                user = user(new String(userId));
+                users[index] = user;
+            }
+            return user;
+        }
+
+        /**
+         * @return the user with the given id, created now if it doesn't exist yet.
+         */
+        User user(String id) throws TradingApplicationException {
+            User user = UserManager.getInstance().getUser(id);
+            if (user == null) {
+                UserManager.getInstance().init(new String[]{id});
+                user = UserManager.getInstance().getUser(id);
+            }
+            return user;
+        }
+
+        /** Publish each restored book's market, and move new order ids past the restored ones. */
+        void finish() throws TradingApplicationException {
+            for (ProductBook book : books) {
+                if (book != null) { book.updateMarket(); }
+            }
+            if (lastOrderId > 0) { OrderIds.advancePast(lastOrderId); }
+        }
+
+        Result result(Path snapshot, long startNanos) {
+            return new Result(snapshot, restoredOrders, batches, records, adds, cancels, amends, rejected, fills, lastOrderId, System.nanoTime() - startNanos);
+        }
+    }
+}
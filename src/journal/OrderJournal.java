@@ -0,0 +1,535 @@
+package journal;
+
+import book.BookSide;
+import exceptions.InvalidRangeException;
+import exceptions.NullArgumentException;
+import tradable.ExecutionReport;
+import tradable.Order;
+import tradable.SymbolRegistry;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only, binary write-ahead journal of the requests applied to the product books (adds and cancels)
+ * and the fills they produced, so the books and users can be rebuilt after a restart with {@link JournalReplay}.
+ * Product books record each request here before applying it, once the journal is set on the
+ * {@link JournalManager}.
+ * <br><br>
+ * Records are appended to an in-memory buffer under a short lock, and a committer thread writes the buffer
+ * out as one batch (a group commit) whenever the commit interval passes, the buffer is half full, or a
+ * caller is waiting for its record to be durable. Each batch carries a checksum, so a batch torn by a crash
+ * is detected and dropped on the next open. How far writes are synced to disk depends on the
+ * {@link FsyncPolicy}.
+ * <br><br>
+ * File layout, all values big-endian: an 8 byte file header (magic number, version), then batches of a 12
+ * byte header (payload length, record count, CRC-32C of the payload) followed by the records. Each record
+ * is a type byte then:
+ * <pre>
+ *     SYMBOL  journal product id (int), symbol length (byte), symbol (ASCII)
+ *     ADD     order id (long), product id (int), side (byte), price in cents (long), volume (int), user (3 ASCII)
+ *     CANCEL  order id (long), product id (int), side (byte)
+ *     FILL    order id (long), product id (int), side (byte), volume (int), price in cents (long), remaining volume (int)
+ *     AMEND   order id (long), product id (int), side (byte), new price in cents (long), new remaining volume (int)
+ *     ICEBERG as ADD, then peak volume (int)
+ * </pre>
+ * Products are written as ids, with a SYMBOL record defining each id the first time it's used.
+ */
+public final class OrderJournal {
+
+    /** How far the journal goes to make records durable. */
+    public enum FsyncPolicy {
+        /** Batches are written to the file but syncing to disk is left to the operating system. */
+        NONE,
+        /** Every batch is synced to disk, but callers don't wait for it. A crash loses at most the last commit interval. */
+        GROUP,
+        /** Every batch is synced to disk, and add, cancel and amend calls wait until their record has been. */
+        SYNC
+    }
+
+    static final int MAGIC = 0x4F4A524E; // "OJRN"
+    /** Raised with every new record type, so an older reader rejects the file up front rather than part way through. */
+    static final int VERSION = 3; // 2 added AMEND, 3 added ICEBERG.
+    static final int FILE_HEADER_SIZE = 8;
+    static final int BATCH_HEADER_SIZE = 12;
+
+    // Record types:
+    static final byte SYMBOL = 1;
+    static final byte ADD = 2;
+    static final byte CANCEL = 3;
+    static final byte FILL = 4;
+    static final byte AMEND = 5;
+    static final byte ICEBERG = 6;
+    // Record sizes after the type byte, for the fixed size types:
+    static final int ADD_SIZE = 8 + 4 + 1 + 8 + 4 + 3;
+    static final int CANCEL_SIZE = 8 + 4 + 1;
+    static final int FILL_SIZE = 8 + 4 + 1 + 4 + 8 + 4;
+    static final int AMEND_SIZE = 8 + 4 + 1 + 8 + 4;
+    static final int ICEBERG_SIZE = ADD_SIZE + 4;
+
+    /** Room for the largest record, a SYMBOL record. */
+    private static final int MAX_RECORD_SIZE = 1 + 4 + 1 + 255;
+    static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    static final long DEFAULT_COMMIT_INTERVAL_MICROS = 1000;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final FsyncPolicy policy;
+    private final long commitIntervalNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Signalled to wake the committer before the end of the commit interval. */
+    private final Condition commitNeeded = lock.newCondition();
+    /** Signalled when the committer swaps buffers, for appenders waiting for room. */
+    private final Condition roomAvailable = lock.newCondition();
+    /** Signalled when a batch has been committed, for callers waiting for their records. */
+    private final Condition batchCommitted = lock.newCondition();
+
+    // Guarded by the lock:
+    /** The buffer records are appended to. */
+    private ByteBuffer active;
+    /** The buffer being written by the committer, swapped with the active one on each commit. */
+    private ByteBuffer standby;
+    private int activeRecords;
+    /** Product ids already defined by a SYMBOL record, indexed by product id. */
+    private boolean[] definedSymbols = new boolean[0];
+    /** The number of records appended. */
+    private long appended;
+    /** The number of records written (and synced, as the policy requires). */
+    private long committed;
+    private long commits;
+    private long bytesWritten;
+    /** The end of the last batch written, where the next one starts. */
+    private long fileEnd;
+    private IOException failure;
+    private boolean closed;
+
+    // Only used by the committer thread:
+    private final ByteBuffer batchHeader = ByteBuffer.allocateDirect(BATCH_HEADER_SIZE);
+    private final ByteBuffer[] batch = new ByteBuffer[2];
+    private final CRC32C crc = new CRC32C();
+    private final Thread committer;
+
+    private OrderJournal(Path path, FileChannel channel, long fileEnd, FsyncPolicy policy, int bufferSize, long commitIntervalMicros) {
+        this.path = path;
+        this.channel = channel;
+        this.fileEnd = fileEnd;
+        this.policy = policy;
+        this.commitIntervalNanos = commitIntervalMicros * 1000;
+        this.active = ByteBuffer.allocateDirect(bufferSize);
+        this.standby = ByteBuffer.allocateDirect(bufferSize);
+
+        committer = new Thread(this::runCommitter, "journal-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Open a journal with the default 1MB buffer and 1ms commit interval, see
+     * {@link #open(Path, FsyncPolicy, int, long)}.
+     */
+    public static OrderJournal open(Path path, FsyncPolicy policy) throws IOException, NullArgumentException, InvalidRangeException {
+        return open(path, policy, DEFAULT_BUFFER_SIZE, DEFAULT_COMMIT_INTERVAL_MICROS);
+    }
+
+    /**
+     * Open a journal file for appending, creating it if it doesn't exist. A batch torn by a crash at the
+     * end of an existing file is cut off first, and a file of an older version is marked as the current one.
+     *
+     * @param path the journal file.
+     * @param policy how far to go to make records durable.
+     * @param bufferSize the bytes of records buffered between commits.
+     * @param commitIntervalMicros the longest a record waits before being committed.
+     * @throws IOException if the file can't be opened, or isn't a journal.
+     * @throws NullArgumentException if the path or policy is null.
+     * @throws InvalidRangeException if the buffer size or commit interval is out of range.
+     */
+    public static OrderJournal open(Path path, FsyncPolicy policy, int bufferSize, long commitIntervalMicros)
+            throws IOException, NullArgumentException, InvalidRangeException {
+        if (path == null) { throw new NullArgumentException("Invalid path argument: null"); }
+        if (policy == null) { throw new NullArgumentException("Invalid FsyncPolicy argument: null"); }
+        if (bufferSize < 4 * MAX_RECORD_SIZE) { throw new InvalidRangeException("Invalid bufferSize argument " + bufferSize + ": must be at least " + (4 * MAX_RECORD_SIZE)); }
+        if (commitIntervalMicros <= 0) { throw new InvalidRangeException("Invalid commitIntervalMicros argument " + commitIntervalMicros + ": must be greater than 0"); }
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long end;
+        try {
+            if (channel.size() < FILE_HEADER_SIZE) { // New, or a crash before the header was complete.
+                channel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+                while (header.hasRemaining()) { channel.write(header, header.position()); }
+                channel.force(true);
+                end = FILE_HEADER_SIZE;
+            } else { // Skip the intact batches, and cut off anything after them.
+                JournalReader reader = new JournalReader(channel);
+                while (reader.next() != null) { /* Just finding the end. */ }
+                end = reader.validEnd();
+                channel.truncate(end);
+                if (reader.version() < VERSION) { // The records appended may be of types the old version lacks.
+                    ByteBuffer version = ByteBuffer.allocate(4).putInt(VERSION).flip();
+                    while (version.hasRemaining()) { channel.write(version, 4 + version.position()); }
+                    channel.force(true);
+                }
+            }
+            channel.position(end);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new OrderJournal(path, channel, end, policy, bufferSize, commitIntervalMicros);
+    }
+
+    public Path getPath() { return path; }
+
+    public FsyncPolicy getPolicy() { return policy; }
+
+    /**
+     * Record an order being added to its book.
+     *
+     * @throws UncheckedIOException if an earlier write to the journal failed.
+     * @throws IllegalStateException if the journal is closed.
+     */
+    public void add(Order order) {
+        long sequence;
+        lock.lock();
+        try {
+            reserve();
+            int productId = order.getProductId();
+            defineSymbol(productId);
+            int peakVolume = order.getPeakVolume();
+            active.put((peakVolume > 0) ? ICEBERG : ADD).putLong(order.getOrderId()).putInt(productId).put((byte) order.getSide().ordinal())
+                    .putLong(order.getPrice().getValue()).putInt(order.getRemainingVolume());
+            String user = order.getUser();
+            for (int i = 0; i < 3; i++) { active.put((byte) user.charAt(i)); } // Always 3 letters.
+            if (peakVolume > 0) { active.putInt(peakVolume); }
+            sequence = appended();
+        } finally {
+            lock.unlock();
+        }
+        if (policy == FsyncPolicy.SYNC) { awaitCommit(sequence); }
+    }
+
+    /**
+     * Record a cancel request for a resting order.
+     *
+     * @throws UncheckedIOException if an earlier write to the journal failed.
+     * @throws IllegalStateException if the journal is closed.
+     */
+    public void cancel(int productId, BookSide side, long orderId) {
+        long sequence;
+        lock.lock();
+        try {
+            reserve();
+            defineSymbol(productId);
+            active.put(CANCEL).putLong(orderId).putInt(productId).put((byte) side.ordinal());
+            sequence = appended();
+        } finally {
+            lock.unlock();
+        }
+        if (policy == FsyncPolicy.SYNC) { awaitCommit(sequence); }
+    }
+
+    /**
+     * Record an amend request for a resting order.
+     *
+     * @param price the new price in cents.
+     * @param volume the new remaining volume.
+     * @throws UncheckedIOException if an earlier write to the journal failed.
+     * @throws IllegalStateException if the journal is closed.
+     */
+    public void amend(int productId, BookSide side, long orderId, long price, int volume) {
+        long sequence;
+        lock.lock();
+        try {
+            reserve();
+            defineSymbol(productId);
+            active.put(AMEND).putLong(orderId).putInt(productId).put((byte) side.ordinal()).putLong(price).putInt(volume);
+            sequence = appended();
+        } finally {
+            lock.unlock();
+        }
+        if (policy == FsyncPolicy.SYNC) { awaitCommit(sequence); }
+    }
+
+    /**
+     * Record the fills from a batch of execution reports; other reports are skipped, as cancels are recorded
+     * by the {@link #cancel} or {@link #amend} request that made them.
+     *
+     * @throws UncheckedIOException if an earlier write to the journal failed.
+     * @throws IllegalStateException if the journal is closed.
+     */
+    public void fills(List<ExecutionReport> reports) {
+        long sequence = 0;
+        lock.lock();
+        try {
+            for (int i = 0; i < reports.size(); i++) {
+                ExecutionReport report = reports.get(i);
+                if (report.type != ExecutionReport.Type.FILL) { continue; }
+                reserve();
+                defineSymbol(report.productId);
+                active.put(FILL).putLong(report.orderId).putInt(report.productId).put((byte) report.side.ordinal())
+                        .putInt(report.volume).putLong(report.price).putInt(report.remainingVolume);
+                sequence = appended();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (sequence > 0 && policy == FsyncPolicy.SYNC) { awaitCommit(sequence); }
+    }
+
+    /** Make sure the active buffer has room for a record and possibly a SYMBOL record before it. */
+    private void reserve() {
+        checkOpen();
+        boolean interrupted = false;
+        while (active.remaining() < 2 * MAX_RECORD_SIZE) { // Full, wait for the committer to swap buffers.
+            commitNeeded.signal();
+            try {
+                roomAvailable.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            checkOpen();
+        }
+        if (interrupted) { Thread.currentThread().interrupt(); }
+    }
+
+    private void defineSymbol(int productId) {
+        if (productId < definedSymbols.length && definedSymbols[productId]) { return; }
+        if (productId >= definedSymbols.length) { definedSymbols = Arrays.copyOf(definedSymbols, Math.max(productId + 1, definedSymbols.length * 2)); }
+        String symbol = SymbolRegistry.getInstance().symbolOf(productId);
+        if (symbol == null || symbol.length() > 255) { throw new IllegalArgumentException("Unknown product id " + productId); }
+        active.put(SYMBOL).putInt(productId).put((byte) symbol.length());
+        for (int i = 0; i < symbol.length(); i++) { active.put((byte) symbol.charAt(i)); }
+        definedSymbols[productId] = true;
+        activeRecords++;
+        appended++;
+    }
+
+    /** Count a record just appended, waking the committer early if the buffer is filling up. */
+    private long appended() {
+        activeRecords++;
+        if (policy == FsyncPolicy.SYNC || active.position() > active.capacity() / 2) { commitNeeded.signal(); }
+        return ++appended;
+    }
+
+    private void checkOpen() {
+        if (failure != null) { throw new UncheckedIOException("Order journal " + path + " failed", failure); }
+        if (closed) { throw new IllegalStateException("Order journal " + path + " is closed"); }
+    }
+
+    /** Wait until every record up to the given one has been committed. */
+    private void awaitCommit(long sequence) {
+        boolean interrupted = false;
+        lock.lock();
+        try {
+            while (committed < sequence) {
+                if (failure != null) { throw new UncheckedIOException("Order journal " + path + " failed", failure); }
+                commitNeeded.signal(); // Ask the committer to commit now rather than at the end of the interval.
+                try {
+                    batchCommitted.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (interrupted) { Thread.currentThread().interrupt(); }
+    }
+
+    /**
+     * Mark the journal's current place: every record appended so far is before the position, and every later
+     * record after it. Taken while the product books are paused (see {@link book.ProductManager#runPaused}),
+     * it marks where replay should pick up after a snapshot of them.
+     *
+     * @return the current position.
+     */
+    public JournalPosition position() {
+        lock.lock();
+        try {
+            return new JournalPosition(fileEnd, appended - committed); // Uncommitted records follow the last batch.
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until every record appended so far has been committed.
+     *
+     * @throws UncheckedIOException if writing to the journal failed.
+     */
+    public void flush() {
+        long target;
+        lock.lock();
+        try {
+            target = appended;
+        } finally {
+            lock.unlock();
+        }
+        awaitCommit(target);
+    }
+
+    /**
+     * Commit everything appended so far, sync the file, and stop the committer. Records appended afterwards
+     * are rejected with an {@link IllegalStateException}.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) { return; }
+            closed = true;
+            commitNeeded.signal();
+            roomAvailable.signalAll(); // Appenders waiting for room fail now.
+        } finally {
+            lock.unlock();
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.force(true);
+            channel.close();
+        } catch (IOException e) {
+            lock.lock();
+            try {
+                if (failure == null) { failure = e; }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void runCommitter() {
+        while (true) {
+            int records;
+            long upTo;
+            lock.lock();
+            try {
+                if (active.position() == 0 && !closed) { awaitNanos(commitIntervalNanos); }
+                if (active.position() == 0) {
+                    if (closed) {
+                        batchCommitted.signalAll();
+                        return;
+                    }
+                    continue;
+                }
+                ByteBuffer full = active; // Swap, appenders carry on in the empty buffer.
+                active = standby;
+                standby = full;
+                records = activeRecords;
+                activeRecords = 0;
+                upTo = appended;
+                roomAvailable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                int bytes = write(standby, records);
+                if (policy != FsyncPolicy.NONE) { channel.force(false); }
+                lock.lock();
+                try {
+                    committed = upTo;
+                    commits++;
+                    bytesWritten += bytes;
+                    fileEnd += bytes;
+                    batchCommitted.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                    batchCommitted.signalAll();
+                    roomAvailable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+        }
+    }
+
+    private void awaitNanos(long nanos) {
+        try {
+            commitNeeded.await(nanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            // Keep committing, only close() stops the committer.
+        }
+    }
+
+    /** Write a buffer of records as one checksummed batch. */
+    private int write(ByteBuffer records, int count) throws IOException {
+        records.flip();
+        crc.reset();
+        crc.update(records);
+        records.rewind();
+        batchHeader.clear();
+        batchHeader.putInt(records.remaining()).putInt(count).putInt((int) crc.getValue()).flip();
+        int bytes = BATCH_HEADER_SIZE + records.remaining();
+        batch[0] = batchHeader;
+        batch[1] = records;
+        while (records.hasRemaining()) { channel.write(batch); }
+        records.clear();
+        return bytes;
+    }
+
+    /**
+     * @return the number of records appended, including SYMBOL records.
+     */
+    public long getAppendedCount() {
+        lock.lock();
+        try {
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of batches written.
+     */
+    public long getCommitCount() {
+        lock.lock();
+        try {
+            return commits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes written, not counting the file header.
+     */
+    public long getBytesWritten() {
+        lock.lock();
+        try {
+            return bytesWritten;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "OrderJournal " + path + " fsync=" + policy + " records=" + appended + " commits=" + commits + " bytes=" + bytesWritten;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package journal;
+
+import book.BookSide;
+import book.ProductBook;
+import book.ProductManager;
+import exceptions.InvalidOperationException;
+import exceptions.NullArgumentException;
+import exceptions.TradingApplicationException;
+import price.PriceFactory;
+import tradable.Order;
+import tradable.OrderDTO;
+import tradable.OrderIds;
+import tradable.SymbolRegistry;
+import user.User;
+import user.UserManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32C;
+
+/**
+ * A point-in-time copy of every product book and user, written to a compact binary file so a restart only
+ * replays the journal records written after it (see {@link JournalReplay#recover(Path, Path)}) instead of the
+ * whole day's. Taking one pauses the books (see {@link ProductManager#runPaused}) just long enough to copy
+ * their orders, the users' orders and positions, and the matching {@link JournalPosition} into memory; the
+ * file is written afterwards on the calling thread while matching carries on. Files are written under a
+ * temporary name then renamed, and end with a checksum, so a crash never leaves a partial snapshot behind.
+ * <br><br>
+ * An order's copy still on its way back to its user when the snapshot was taken (ex: the {@link OrderDTO}
+ * returned by adding it) is missed from the user's orders. Resting orders are given back to their users from
+ * the books on restore, so only such an order completed within the same moment is lost from the user's history.
+ * <br><br>
+ * File layout, all values big-endian:
+ * <pre>
+ *     header   magic number (int), version (int), time taken in epoch millis (long),
+ *              journal position offset (long, -1 without a journal), journal position skip (long)
+ *     symbols  count (int), then each: symbol length (byte), symbol (ASCII); the product id is the index
+ *     users    count (int), then each: user (3 ASCII), position count (int), then each position: product id
+ *              (int), position (long), order count (int), then each order: order id (long), product id (int),
+ *              side (byte), price in cents (long), original, remaining, filled, cancelled volume (int each)
+ *     books    count (int), then each: product id (int), order count (int), then each order, best price first
+ *              and oldest first within a price: order id (long), side (byte), price in cents (long), original,
+ *              remaining, filled, cancelled, peak, hidden volume (int each), user (3 ASCII)
+ *     CRC-32C of everything before it (int)
+ * </pre>
+ */
+public final class Snapshot {
+
+    static final int MAGIC = 0x4F534E50; // "OSNP"
+    static final int VERSION = 2; // Version 1 book orders had no cancelled, peak or hidden volume.
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+    private static final BookSide[] SIDES = BookSide.values();
+
+    /** The snapshot file. */
+    public final Path path;
+    public final long takenAtMillis;
+    /** The journal position the snapshot matches, or null if journaling was off. */
+    public final JournalPosition position;
+    public final int users;
+    /** The number of resting orders copied from the books. */
+    public final long orders;
+    public final long bytes;
+    /** How long the books were paused to copy them. */
+    public final long pauseNanos;
+
+    private Snapshot(Path path, long takenAtMillis, JournalPosition position, int users, long orders, long bytes, long pauseNanos) {
+        this.path = path;
+        this.takenAtMillis = takenAtMillis;
+        this.position = position;
+        this.users = users;
+        this.orders = orders;
+        this.bytes = bytes;
+        this.pauseNanos = pauseNanos;
+    }
+
+    /**
+     * Take a snapshot of every product book and user into a new file in a directory, named so the newest
+     * sorts last. When journaling is on, returns once the journal records it covers have been committed too.
+     *
+     * @param dir the directory to write to, created if it doesn't exist.
+     * @return what was written.
+     * @throws IOException if the file can't be written, or the journal has failed.
+     * @throws NullArgumentException if the directory is null.
+     */
+    public static Snapshot take(Path dir) throws IOException, NullArgumentException {
+        if (dir == null) { throw new NullArgumentException("Invalid snapshot directory argument: null"); }
+        long takenAt = System.currentTimeMillis();
+        Encoder encoder = new Encoder();
+        long pauseStart = System.nanoTime();
+        ProductManager.getInstance().runPaused(() -> encoder.encode(takenAt));
+        long pauseNanos = System.nanoTime() - pauseStart;
+
+        if (encoder.journal != null) {
+            try {
+                encoder.journal.flush(); // A snapshot must never be ahead of what the journal has kept.
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        Files.createDirectories(dir);
+        Path file = dir.resolve(String.format(Locale.ROOT, "%s%019d%s", PREFIX, takenAt, SUFFIX));
+        Path temp = dir.resolve(file.getFileName() + ".tmp");
+        ByteBuffer data = encoder.out.flip();
+        long bytes = data.remaining();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) { channel.write(data); }
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return new Snapshot(file, takenAt, encoder.position, encoder.users, encoder.orders, bytes, pauseNanos);
+    }
+
+    /**
+     * @param dir a snapshot directory.
+     * @return the newest snapshot file in the directory, or null if there are none (or no directory).
+     */
+    public static Path latest(Path dir) throws IOException {
+        List<Path> files = list(dir);
+        return files.isEmpty() ? null : files.get(files.size() - 1);
+    }
+
+    /**
+     * Delete all but the newest snapshot files in a directory.
+     *
+     * @param dir a snapshot directory.
+     * @param keep the number of snapshots to keep.
+     * @return the number of snapshots deleted.
+     */
+    public static int prune(Path dir, int keep) throws IOException {
+        List<Path> files = list(dir);
+        int deleted = 0;
+        for (int i = 0; i < files.size() - Math.max(keep, 0); i++) {
+            if (Files.deleteIfExists(files.get(i))) { deleted++; }
+        }
+        return deleted;
+    }
+
+    /** @return the snapshot files in a directory, oldest first. */
+    private static List<Path> list(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (dir == null || !Files.isDirectory(dir)) { return files; }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) { files.add(file); }
+        }
+        files.sort(null); // Zero padded times, so name order is time order.
+        return files;
+    }
+
+    /**
+     * Restore a snapshot's users and books, which must be empty, through a replay so journal records after it
+     * can be applied to the same books.
+     *
+     * @return the journal position the snapshot matches, or null if journaling was off.
+     */
+    static JournalPosition restore(Path file, JournalReplay.Replayer replayer) throws IOException, TradingApplicationException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (in.remaining() < HEADER_SIZE + 4) { throw new IOException("Not a snapshot: " + file + " is too short"); }
+        CRC32C crc = new CRC32C();
+        crc.update(in.array(), 0, in.limit() - 4);
+        if ((int) crc.getValue() != in.getInt(in.limit() - 4)) { throw new IOException("Snapshot " + file + " is corrupt: checksum mismatch"); }
+        in.limit(in.limit() - 4);
+        if (in.getInt() != MAGIC) { throw new IOException("Not a snapshot: " + file + " has a bad magic number"); }
+        int version = in.getInt();
+        if (version < 1 || version > VERSION) { throw new IOException("Unsupported snapshot version " + version + " in " + file); }
+        in.getLong(); // Time taken, only used in the file name.
+        long offset = in.getLong();
+        long skip = in.getLong();
+
+        String[] symbols = new String[in.getInt()];
+        byte[] symbol = new byte[255];
+        for (int i = 0; i < symbols.length; i++) { symbols[i] = readString(in, symbol, in.get() & 0xFF); }
+
+        for (int u = in.getInt(); u > 0; u--) {
+            User user = replayer.user(readString(in, symbol, 3));
+            for (int p = in.getInt(); p > 0; p--) {
+                String product = symbol(symbols, in.getInt());
+                user.setPosition(product, in.getLong());
+            }
+            for (int o = in.getInt(); o > 0; o--) {
+                long orderId = in.getLong();
+                String product = symbol(symbols, in.getInt());
+                BookSide side = side(in.get());
+                long price = in.getLong();
+                user.addOrder(new OrderDTO(user.getUserId(), product, orderId, OrderIds.format(user.getUserId(), product, price, orderId),
+                        side, PriceFactory.makePrice(price), in.getInt(), in.getInt(), in.getInt(), in.getInt()));
+                replayer.lastOrderId = Math.max(replayer.lastOrderId, orderId);
+            }
+        }
+
+        char[] userId = new char[3];
+        for (int b = in.getInt(); b > 0; b--) {
+            int productId = in.getInt();
+            ProductBook book = replayer.defineBook(productId, symbol(symbols, productId));
+            if (!book.isEmpty()) { throw new InvalidOperationException("Snapshots can only be restored into empty books, " + book.getProduct() + " has orders"); }
+            for (int o = in.getInt(); o > 0; o--) {
+                long orderId = in.getLong();
+                BookSide side = side(in.get());
+                long price = in.getLong();
+                int originalVolume = in.getInt();
+                int remainingVolume = in.getInt();
+                int filledVolume = in.getInt();
+                int cancelledVolume = (version > 1) ? in.getInt() : 0;
+                int peakVolume = (version > 1) ? in.getInt() : 0;
+                int hiddenVolume = (version > 1) ? in.getInt() : 0;
+                for (int i = 0; i < 3; i++) { userId[i] = (char) in.get(); }
+                Order order = (peakVolume > 0)
+                        ? Order.iceberg(new String(userId), book.getProduct(), side, PriceFactory.makePrice(price), originalVolume, peakVolume, orderId)
+                        : new Order(new String(userId), book.getProduct(), side, PriceFactory.makePrice(price), originalVolume, orderId);
+                order.setRemainingVolume(remainingVolume);
+                order.setFilledVolume(filledVolume);
+                order.setCancelledVolume(cancelledVolume);
+                order.setHiddenVolume(hiddenVolume);
+                OrderDTO dto = book.restore(order);
+                User user = UserManager.getInstance().getUser(order.getUser());
+                if (user != null) { user.addOrder(dto); } // Replaces the user's equal copy, or fills in a missed one.
+                replayer.lastOrderId = Math.max(replayer.lastOrderId, orderId);
+                replayer.restoredOrders++;
+            }
+        }
+        if (in.hasRemaining()) { throw new IOException("Snapshot " + file + " is corrupt: " + in.remaining() + " unread bytes"); }
+        return (offset < 0) ? null : new JournalPosition(offset, skip);
+    }
+
+    private static String readString(ByteBuffer in, byte[] buffer, int length) {
+        in.get(buffer, 0, length);
+        return new String(buffer, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    private static String symbol(String[] symbols, int productId) throws IOException {
+        if (productId < 0 || productId >= symbols.length) { throw new IOException("Corrupt snapshot: product id " + productId); }
+        return symbols[productId];
+    }
+
+    private static BookSide side(byte ordinal) throws IOException {
+        if (ordinal < 0 || ordinal >= SIDES.length) { throw new IOException("Corrupt snapshot: book side " + ordinal); }
+        return SIDES[ordinal];
+    }
+
+    /** Copies the books and users into a buffer while they're paused. */
+    private static final class Encoder {
+        ByteBuffer out = ByteBuffer.allocate(1 << 16);
+        OrderJournal journal;
+        JournalPosition position;
+        /** Products registered when the copy started; later ones can't have orders in the paused books. */
+        int symbolCount;
+        int users;
+        long orders;
+
+        Void encode(long takenAt) {
+            journal = JournalManager.getInstance().getJournal();
+            position = (journal != null) ? journal.position() : null;
+            out.putInt(MAGIC).putInt(VERSION).putLong(takenAt)
+                    .putLong((position != null) ? position.offset : -1).putLong((position != null) ? position.skip : 0);
+
+            SymbolRegistry registry = SymbolRegistry.getInstance();
+            symbolCount = registry.size();
+            out.putInt(symbolCount);
+            for (int id = 0; id < symbolCount; id++) {
+                String symbol = registry.symbolOf(id);
+                ensure(1 + symbol.length());
+                out.put((byte) symbol.length());
+                putAscii(symbol);
+            }
+
+            int usersAt = reserveCount();
+            UserManager.getInstance().forEachUser(this::encodeUser);
+            out.putInt(usersAt, users);
+
+            int booksAt = reserveCount();
+            int books = 0;
+            for (int id = 0; id < symbolCount; id++) {
+                ProductBook book = ProductManager.getInstance().getProductBook(id);
+                if (book == null) { continue; }
+                ensure(8);
+                out.putInt(id);
+                int ordersAt = reserveCount();
+                long before = orders;
+                book.forEachRestingOrder(this::encodeOrder);
+                out.putInt(ordersAt, (int) (orders - before));
+                books++;
+            }
+            out.putInt(booksAt, books);
+
+            CRC32C crc = new CRC32C();
+            crc.update(out.array(), 0, out.position());
+            ensure(4);
+            out.putInt((int) crc.getValue());
+            return null;
+        }
+
+        private void encodeUser(User user) {
+            ensure(3);
+            putAscii(user.getUserId());
+            int positionsAt = reserveCount();
+            int[] count = new int[1];
+            user.forEachPosition((product, position) -> {
+                int productId = productId(product);
+                if (productId < 0) { return; }
+                ensure(12);
+                out.putInt(productId).putLong(position);
+                count[0]++;
+            });
+            out.putInt(positionsAt, count[0]);
+
+            int ordersAt = reserveCount();
+            count[0] = 0;
+            user.forEachOrder(order -> {
+                int productId = productId(order.product);
+                if (productId < 0) { return; } // Not a product with a book, so it can't be journaled either.
+                ensure(8 + 4 + 1 + 8 + 16);
+                out.putLong(order.orderId).putInt(productId).put((byte) order.side.ordinal()).putLong(order.price.getValue())
+                        .putInt(order.originalVolume).putInt(order.remainingVolume).putInt(order.filledVolume).putInt(order.cancelledVolume);
+                count[0]++;
+            });
+            out.putInt(ordersAt, count[0]);
+            users++;
+        }
+
+        private void encodeOrder(Order order) {
+            ensure(8 + 1 + 8 + 24 + 3);
+            out.putLong(order.getOrderId()).put((byte) order.getSide().ordinal()).putLong(order.getPrice().getValue())
+                    .putInt(order.getOriginalVolume()).putInt(order.getRemainingVolume()).putInt(order.getFilledVolume())
+                    .putInt(order.getCancelledVolume()).putInt(order.getPeakVolume()).putInt(order.getHiddenVolume());
+            putAscii(order.getUser());
+            orders++;
+        }
+
+        private int productId(String product) {
+            int productId = SymbolRegistry.getInstance().idOf(product);
+            return (productId < symbolCount) ? productId : -1;
+        }
+
+        /** @return the index of a count to fill in once it's known. */
+        private int reserveCount() {
+            ensure(4);
+            int at = out.position();
+            out.putInt(0);
+            return at;
+        }
+
+        private void putAscii(String value) {
+            for (int i = 0; i < value.length(); i++) { out.put((byte) value.charAt(i)); }
+        }
+
+        private void ensure(int bytes) {
+            if (out.remaining() >= bytes) { return; }
+            int capacity = Math.max(out.capacity() * 2, out.position() + bytes);
+            out = ByteBuffer.wrap(Arrays.copyOf(out.array(), capacity)).position(out.position());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "Snapshot %s: %d users, %d resting orders, %d bytes, paused %.3fms%s",
+                path, users, orders, bytes, pauseNanos / 1e6, (position != null) ? ", journal at " + position : "");
+    }
+}
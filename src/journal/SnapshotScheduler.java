@@ -0,0 +1,109 @@
+package journal;
+
+import exceptions.InvalidRangeException;
+import exceptions.NullArgumentException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes a {@link Snapshot} on a background thread at a fixed interval and deletes all but the newest few, so a
+ * restart only has about one interval of the journal to replay. A snapshot that fails is counted and the next
+ * one is still attempted on schedule.
+ */
+public final class SnapshotScheduler {
+
+    private final Path dir;
+    private final long intervalMillis;
+    private final int keep;
+    private ScheduledExecutorService executor;
+
+    // Only written by the snapshot thread:
+    private volatile Snapshot last;
+    private volatile long taken;
+    private volatile long failures;
+    private volatile Exception lastFailure;
+    private volatile long longestPauseNanos;
+
+    /**
+     * @param dir the directory to write snapshots to.
+     * @param intervalMillis the time between the end of one snapshot and the start of the next.
+     * @param keep the number of snapshots to keep.
+     * @throws NullArgumentException if the directory is null.
+     * @throws InvalidRangeException if the interval or number to keep is less than 1.
+     */
+    public SnapshotScheduler(Path dir, long intervalMillis, int keep) throws NullArgumentException, InvalidRangeException {
+        if (dir == null) { throw new NullArgumentException("Invalid snapshot directory argument: null"); }
+        if (intervalMillis < 1) { throw new InvalidRangeException("Invalid intervalMillis argument " + intervalMillis + ": must be greater than 0"); }
+        if (keep < 1) { throw new InvalidRangeException("Invalid keep argument " + keep + ": must be greater than 0"); }
+        this.dir = dir;
+        this.intervalMillis = intervalMillis;
+        this.keep = keep;
+    }
+
+    /**
+     * Start taking snapshots, the first one interval from now.
+     */
+    public synchronized void start() {
+        if (executor != null) { return; }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snapshot-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::takeSnapshot, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop taking snapshots, waiting for one in progress to finish.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (executor == null) { return; }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        executor = null;
+    }
+
+    private void takeSnapshot() {
+        try {
+            Snapshot snapshot = Snapshot.take(dir);
+            Snapshot.prune(dir, keep);
+            last = snapshot;
+            taken++;
+            longestPauseNanos = Math.max(longestPauseNanos, snapshot.pauseNanos);
+        } catch (IOException | NullArgumentException | RuntimeException e) { // Don't let one failure stop the schedule.
+            lastFailure = e;
+            failures++;
+        }
+    }
+
+    /**
+     * @return the last snapshot taken, or null if none has been yet.
+     */
+    public Snapshot getLastSnapshot() { return last; }
+
+    public long getSnapshotCount() { return taken; }
+
+    public long getFailureCount() { return failures; }
+
+    /**
+     * @return the exception from the last snapshot that failed, or null if none have.
+     */
+    public Exception getLastFailure() { return lastFailure; }
+
+    /**
+     * @return the longest the books were paused for a snapshot.
+     */
+    public long getLongestPauseNanos() { return longestPauseNanos; }
+
+    @Override
+    public String toString() {
+        return String.format(java.util.Locale.ROOT, "SnapshotScheduler %s every %dms: %d taken, %d failed, longest pause %.3fms%s",
+                dir, intervalMillis, taken, failures, longestPauseNanos / 1e6, (last != null) ? "\n" + last : "");
+    }
+}
@@ -0,0 +1,179 @@
+package logging;
+
+import book.BookSide;
+import exceptions.InvalidArgumentException;
+import exceptions.NullArgumentException;
+import tradable.Order;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An event log that takes formatting and console writes off the matching thread. Events are copied into a
+ * bounded ring of pre-allocated {@link EventRecord}s, and a background writer thread formats them in batches
+ * and writes each batch to the stream at once. Logging never blocks: if the ring is full because the writer
+ * has fallen behind, the event is dropped and counted instead.
+ */
+public final class AsyncEventLog implements EventLog {
+
+    private static final long IDLE_PARK_NANOS = 100_000;
+
+    private final EventRecord[] ring;
+    private final int mask;
+    private final int indexShift;
+    /** The lap number each slot was last committed for, telling the writer which slots are ready. */
+    private final AtomicIntegerArray committed;
+    /** The highest sequence claimed by a logging thread. */
+    private final AtomicLong claimed = new AtomicLong(-1);
+    /** The highest sequence written out by the writer thread. */
+    private final AtomicLong written = new AtomicLong(-1);
+    private final LongAdder dropped = new LongAdder();
+
+    private final PrintStream out;
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    /**
+     * @param capacity the number of events the ring can hold; must be a power of two.
+     * @param out the stream the writer thread writes the formatted events to.
+     * @throws InvalidArgumentException if the capacity is not a positive power of two.
+     * @throws NullArgumentException if the stream is null.
+     */
+    public AsyncEventLog(int capacity, PrintStream out) throws InvalidArgumentException, NullArgumentException {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new InvalidArgumentException("Invalid capacity argument " + capacity + ": must be a power of two");
+        }
+        if (out == null) { throw new NullArgumentException("Invalid PrintStream argument: null"); }
+        ring = new EventRecord[capacity];
+        for (int i = 0; i < capacity; i++) { // Allocate every record up front.
+            ring[i] = new EventRecord();
+        }
+        mask = capacity - 1;
+        indexShift = Integer.numberOfTrailingZeros(capacity);
+        committed = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            committed.set(i, -1);
+        }
+        this.out = out;
+
+        writer = new Thread(this::runWriter, "event-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void fill(BookSide side, int volume, boolean partial, Order order) {
+        long sequence = tryClaim();
+        if (sequence < 0) { return; }
+        EventRecord r = ring[(int) sequence & mask];
+        r.kind = EventRecord.Kind.FILL;
+        r.side = side;
+        r.volume = volume;
+        r.partial = partial;
+        r.user = order.getUser();
+        r.product = order.getProduct();
+        r.price = order.getPrice().getValue();
+        r.originalVolume = order.getOriginalVolume();
+        r.remainingVolume = order.getRemainingVolume();
+        r.filledVolume = order.getFilledVolume();
+        r.cancelledVolume = order.getCancelledVolume();
+        r.id = order.getOrderId(); // Formatted on the writer thread.
+        commit(sequence);
+    }
+
+    @Override
+    public void market(String symbol, long buyPrice, int buyVolume, long sellPrice, int sellVolume, long width) {
+        long sequence = tryClaim();
+        if (sequence < 0) { return; }
+        EventRecord r = ring[(int) sequence & mask];
+        r.kind = EventRecord.Kind.MARKET;
+        r.symbol = symbol;
+        r.buyPrice = buyPrice;
+        r.buyVolume = buyVolume;
+        r.sellPrice = sellPrice;
+        r.sellVolume = sellVolume;
+        r.width = width;
+        commit(sequence);
+    }
+
+    @Override
+    public void flush() {
+        long target = claimed.get();
+        while (written.get() < target && writer.isAlive()) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Write the pending events and stop the writer thread. Events logged while closing may be dropped.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of events discarded because the ring was full or the log was closed.
+     */
+    public long getDroppedCount() { return dropped.sum(); }
+
+    /**
+     * @return the next free sequence claimed for the caller, or -1 (counting a dropped event) if there is none.
+     */
+    private long tryClaim() {
+        long current;
+        long next;
+        do {
+            current = claimed.get();
+            next = current + 1;
+            if (closed || next - ring.length > written.get()) { // Closed, or the writer hasn't freed the slot yet.
+                dropped.increment();
+                return -1;
+            }
+        } while (!claimed.compareAndSet(current, next));
+        return next;
+    }
+
+    private void commit(long sequence) {
+        committed.set((int) sequence & mask, (int) (sequence >>> indexShift));
+    }
+
+    private void runWriter() {
+        StringBuilder batch = new StringBuilder(8192);
+        long next = 0;
+        while (true) {
+            // Take the contiguous run of committed records, logging threads may commit out of order:
+            long available = next - 1;
+            long claimedTo = claimed.get();
+            for (long s = next; s <= claimedTo; s++) {
+                if (committed.get((int) s & mask) != (int) (s >>> indexShift)) { break; }
+                available = s;
+            }
+
+            if (available >= next) {
+                for (long s = next; s <= available; s++) {
+                    EventRecord r = ring[(int) s & mask];
+                    r.appendTo(batch);
+                    r.clear();
+                }
+                out.print(batch); // One write for the whole batch.
+                out.flush();
+                batch.setLength(0);
+                written.set(available);
+                next = available + 1;
+            } else if (closed && next > claimed.get()) {
+                return;
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+}
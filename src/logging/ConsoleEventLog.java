@@ -0,0 +1,40 @@
+package logging;
+
+import book.BookSide;
+import tradable.Order;
+
+import java.io.PrintStream;
+
+/**
+ * Writes each event straight to a stream on the calling thread. Keeps the output in step with anything
+ * else the caller prints, at the cost of a blocking write on the matching thread for every event.
+ */
+public final class ConsoleEventLog implements EventLog {
+
+    private final PrintStream out;
+
+    public ConsoleEventLog() { this(System.out); }
+
+    public ConsoleEventLog(PrintStream out) { this.out = out; }
+
+    @Override
+    public void fill(BookSide side, int volume, boolean partial, Order order) {
+        StringBuilder line = new StringBuilder(192);
+        EventFormat.appendFill(line, side, volume, partial, order.getUser(), order.getProduct(), order.getPrice().getValue(),
+                order.getOriginalVolume(), order.getRemainingVolume(), order.getFilledVolume(), order.getCancelledVolume(), order.getOrderId());
+        out.print(line);
+    }
+
+    @Override
+    public void market(String symbol, long buyPrice, int buyVolume, long sellPrice, int sellVolume, long width) {
+        StringBuilder lines = new StringBuilder(128);
+        EventFormat.appendMarket(lines, symbol, buyPrice, buyVolume, sellPrice, sellVolume, width);
+        out.print(lines);
+    }
+
+    @Override
+    public void flush() { out.flush(); }
+
+    @Override
+    public void close() { out.flush(); }
+}
@@ -0,0 +1,34 @@
+package logging;
+
+import book.BookSide;
+import price.Price;
+import tradable.OrderIds;
+
+/**
+ * Formats logged events as the text lines written to the console.
+ */
+final class EventFormat {
+
+    private static final String NEWLINE = System.lineSeparator();
+
+    private EventFormat() {} // Don't let anyone create an instance of this class.
+
+    static void appendFill(StringBuilder out, BookSide side, int volume, boolean partial, String user, String product,
+                           long price, int originalVolume, int remainingVolume, int filledVolume, int cancelledVolume, long id) {
+        out.append(partial ? "\tPARTIAL FILL: (" : "\tFILL: (").append(side).append(' ').append(volume).append(") ")
+                .append(user).append(" order: ").append(side).append(' ').append(product).append(" at ").append(Price.toString(price))
+                .append(", Orig Vol: ").append(originalVolume).append(", Rem Vol: ").append(remainingVolume)
+                .append(", Fill Vol: ").append(filledVolume).append(", CXL Vol: ").append(cancelledVolume)
+                .append(", ID: ");
+        OrderIds.appendTo(out, user, product, price, id).append(NEWLINE);
+    }
+
+    static void appendMarket(StringBuilder out, String symbol, long buyPrice, int buyVolume, long sellPrice, int sellVolume, long width) {
+        out.append("*********** Current Market ***********").append(NEWLINE)
+                .append("* ").append(symbol).append(' ')
+                .append(Price.toString(buyPrice)).append('x').append(buyVolume).append(" - ")
+                .append(Price.toString(sellPrice)).append('x').append(sellVolume)
+                .append(" [").append(Price.toString(width)).append(']').append(NEWLINE)
+                .append("**************************************").append(NEWLINE);
+    }
+}
@@ -0,0 +1,40 @@
+package logging;
+
+import book.BookSide;
+import tradable.Order;
+
+/**
+ * A log of the fill and market events produced by the matching engine. Implementations are plugged in
+ * through the {@link EventLogManager}, and are called on the matching thread, so they should hand events
+ * off as cheaply as possible.
+ */
+public interface EventLog {
+
+    /**
+     * Log a fill against a resting order. Called after the order's volumes have been updated for the fill.
+     *
+     * @param side the book side of the filled order.
+     * @param volume the volume traded in this fill.
+     * @param partial true if the order still has volume remaining after the fill.
+     * @param order the filled order.
+     */
+    void fill(BookSide side, int volume, boolean partial, Order order);
+
+    /**
+     * Log a current market update for a product; prices are in cents, and zero for an empty side.
+     *
+     * @param symbol the product symbol.
+     * @param width the market width in cents, zero if either side is empty.
+     */
+    void market(String symbol, long buyPrice, int buyVolume, long sellPrice, int sellVolume, long width);
+
+    /**
+     * Wait until every event logged so far has been written.
+     */
+    void flush();
+
+    /**
+     * Write any pending events and release the log's resources. Events logged afterwards are discarded.
+     */
+    void close();
+}
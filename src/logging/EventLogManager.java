@@ -0,0 +1,67 @@
+package logging;
+
+import book.BookSide;
+import exceptions.InvalidArgumentException;
+import exceptions.NullArgumentException;
+import tradable.Order;
+
+public final class EventLogManager {
+
+    /** Singleton class instance, created eagerly so getInstance() is safe to call from any thread. */
+    private static final EventLogManager instance = new EventLogManager();
+
+    /** The number of events the default asynchronous log can hold before dropping. */
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /** An event log that discards everything, used when logging is turned off. */
+    private static final EventLog DISABLED = new EventLog() {
+        @Override public void fill(BookSide side, int volume, boolean partial, Order order) {}
+        @Override public void market(String symbol, long buyPrice, int buyVolume, long sellPrice, int sellVolume, long width) {}
+        @Override public void flush() {}
+        @Override public void close() {}
+    };
+
+    /** The event log in use, an {@link AsyncEventLog} writing to the console unless replaced. */
+    private volatile EventLog log;
+
+    public static EventLogManager getInstance() { return instance; }
+
+    private EventLogManager() {
+        try {
+            log = new AsyncEventLog(DEFAULT_CAPACITY, System.out);
+        } catch (InvalidArgumentException | NullArgumentException e) {
+            throw new IllegalStateException(e); // The default capacity and stream are always valid.
+        }
+        // Write out anything still queued when the application exits.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> log.close(), "event-log-shutdown"));
+    }
+
+    public EventLog getLog() { return log; }
+
+    /**
+     * Replace the event log in use, closing the previous one after its pending events are written.
+     *
+     * @param log the event log to use from now on.
+     * @throws NullArgumentException if the log is null.
+     */
+    public synchronized void setLog(EventLog log) throws NullArgumentException {
+        if (log == null) { throw new NullArgumentException("Invalid EventLog argument: null"); }
+        swapLog(log);
+    }
+
+    private synchronized void swapLog(EventLog log) {
+        EventLog previous = this.log;
+        this.log = log;
+        if (previous != log) { previous.close(); }
+    }
+
+    /**
+     * Turn event logging off, discarding all fill and market events until another log is set.
+     */
+    public void disable() { swapLog(DISABLED); }
+
+    /**
+     * @return true if events are being logged, false if logging has been disabled.
+     */
+    public boolean isEnabled() { return log != DISABLED; }
+}
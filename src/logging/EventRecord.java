@@ -0,0 +1,54 @@
+package logging;
+
+import book.BookSide;
+
+/**
+ * A pre-allocated, reusable slot in the {@link AsyncEventLog} ring. The matching thread copies an event's
+ * primitive values and existing string references into the slot, and the writer thread formats it later.
+ */
+final class EventRecord {
+
+    enum Kind {
+        FILL, MARKET
+    }
+
+    Kind kind;
+
+    // Fill values:
+    BookSide side;
+    int volume;
+    boolean partial;
+    String user;
+    String product;
+    long price;
+    int originalVolume;
+    int remainingVolume;
+    int filledVolume;
+    int cancelledVolume;
+    long id;
+
+    // Market values:
+    String symbol;
+    long buyPrice;
+    int buyVolume;
+    long sellPrice;
+    int sellVolume;
+    long width;
+
+    void appendTo(StringBuilder out) {
+        switch (kind) {
+            case FILL -> EventFormat.appendFill(out, side, volume, partial, user, product, price,
+                    originalVolume, remainingVolume, filledVolume, cancelledVolume, id);
+            case MARKET -> EventFormat.appendMarket(out, symbol, buyPrice, buyVolume, sellPrice, sellVolume, width);
+        }
+    }
+
+    /**
+     * Drop the string references held by the slot once it has been written.
+     */
+    void clear() {
+        user = null;
+        product = null;
+        symbol = null;
+    }
+}
@@ -0,0 +1,89 @@
+package pipeline;
+
+import book.ProductBook;
+import price.Price;
+import tracking.MarketSnapshot;
+import tradable.Order;
+import tradable.OrderDTO;
+
+/**
+ * A pre-allocated slot in the {@link OrderPipeline} ring buffer. Each slot is reused for every request that
+ * passes through its position in the ring, and is filled in stage by stage: the producer sets the request,
+ * the decode stage resolves the book, the match stage sets the result and top-of-book, the tracking stage
+ * records the product's market snapshot, and the publish stage hands the finished event to the result handler.
+ */
+public final class OrderEvent {
+
+    /** The kind of request held by an event. */
+    public enum Type {
+        ADD, CANCEL
+    }
+
+    // Set by the producer:
+    Type type;
+    Order order;
+    OrderDTO cancel;
+
+    // Set by the pipeline stages:
+    ProductBook book;
+    OrderDTO result;
+    Exception error;
+    Price buyPrice;
+    int buyVolume;
+    Price sellPrice;
+    int sellVolume;
+    MarketSnapshot market;
+
+    OrderEvent() {}
+
+    public Type getType() { return type; }
+
+    /**
+     * @return the order to add for an {@link Type#ADD} request, otherwise null.
+     */
+    public Order getOrder() { return order; }
+
+    /**
+     * @return the order to cancel for a {@link Type#CANCEL} request, otherwise null.
+     */
+    public OrderDTO getCancel() { return cancel; }
+
+    /**
+     * @return the {@link OrderDTO} returned by the book for the request; null if it failed, or if a
+     * cancelled order was no longer resting.
+     */
+    public OrderDTO getResult() { return result; }
+
+    /**
+     * @return the exception the request failed with, or null if it succeeded.
+     */
+    public Exception getError() { return error; }
+
+    void setAdd(Order order) {
+        this.type = Type.ADD;
+        this.order = order;
+    }
+
+    void setCancel(OrderDTO cancel) {
+        this.type = Type.CANCEL;
+        this.cancel = cancel;
+    }
+
+    /**
+     * Drop all references held by the slot once the request has been published, so nothing is retained
+     * until the slot comes round again.
+     */
+    void clear() {
+        type = null;
+        order = null;
+        cancel = null;
+        book = null;
+        result = null;
+        error = null;
+        buyPrice = null;
+        buyVolume = 0;
+        sellPrice = null;
+        sellVolume = 0;
+        market = null;
+    }
+}
@@ -0,0 +1,381 @@
+package pipeline;
+
+import book.BookSide;
+import book.ProductBook;
+import book.ProductManager;
+import exceptions.InvalidArgumentException;
+import exceptions.InvalidOperationException;
+import exceptions.NullArgumentException;
+import tracking.CurrentMarketPublisher;
+import tracking.CurrentMarketTracker;
+import tracking.DepthPublisher;
+import tradable.Order;
+import tradable.OrderDTO;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A disruptor-style order ingress pipeline in front of the {@link ProductManager} books. Requests are
+ * written into a pre-allocated ring of {@link OrderEvent} slots and then flow through four stages, each
+ * running on its own thread:
+ *
+ * <ol>
+ *     <li>Decode: validate the request and resolve its {@link ProductBook}.</li>
+ *     <li>Match: add or cancel the order in the book and capture the resulting top-of-book.</li>
+ *     <li>Track: record and log the current market with the {@link CurrentMarketTracker}.</li>
+ *     <li>Publish: notify the {@link CurrentMarketPublisher} observers and the {@link ResultHandler}.</li>
+ * </ol>
+ *
+ * Each stage tracks the last sequence it finished and only reads slots the stage before it has finished
+ * (its sequence barrier), working through every available slot as one batch. Producers only ever wait for
+ * the slowest stage when the ring is completely full, and {@link #tryPublishOrder(Order)} never waits.
+ * <br><br>
+ * The match stage is the single writer of every book while the pipeline runs, so orders for the same books
+ * should not also be sent through {@link ProductManager} directly.
+ */
+public final class OrderPipeline {
+
+    /** Receives each finished request on the publish stage thread, in sequence order. */
+    public interface ResultHandler {
+        /**
+         * @param event the finished request; only valid for the duration of the call, as the slot is reused.
+         */
+        void onResult(OrderEvent event);
+    }
+
+    /** Spins before an idle stage or a producer facing a full ring starts parking. */
+    private static final int SPIN_TRIES = 100;
+    private static final long IDLE_PARK_NANOS = 50_000;
+
+    private final OrderEvent[] ring;
+    private final int mask;
+    private final int indexShift;
+    /** The lap number each slot was last published for, telling the decode stage which slots are ready. */
+    private final AtomicIntegerArray published;
+    private final ResultHandler handler;
+
+    /** The highest sequence claimed by a producer. */
+    private final AtomicLong claimed = new AtomicLong(-1);
+    // The last sequence finished by each stage:
+    private final AtomicLong decoded = new AtomicLong(-1);
+    private final AtomicLong matched = new AtomicLong(-1);
+    private final AtomicLong tracked = new AtomicLong(-1);
+    private final AtomicLong publishedTo = new AtomicLong(-1);
+
+    private final Thread[] stageThreads = new Thread[4];
+    /** True while producers may publish. */
+    private volatile boolean running = false;
+    /** Set once running is false and no producer is still mid-publish, telling the stages they may finish. */
+    private volatile boolean stopped = false;
+    /** Producers currently inside a publish, so shutdown can wait for their slots to be committed. */
+    private final AtomicInteger activeProducers = new AtomicInteger();
+    // Only written by the publish stage:
+    private volatile long handlerFailures;
+    private volatile RuntimeException lastHandlerFailure;
+
+    /**
+     * @param bufferSize the number of slots in the ring; must be a power of two.
+     * @param handler receives each finished request, or null if results aren't needed.
+     * @throws InvalidArgumentException if the buffer size is not a positive power of two.
+     */
+    public OrderPipeline(int bufferSize, ResultHandler handler) throws InvalidArgumentException {
+        if (bufferSize <= 0 || Integer.bitCount(bufferSize) != 1) {
+            throw new InvalidArgumentException("Invalid bufferSize argument " + bufferSize + ": must be a power of two");
+        }
+        ring = new OrderEvent[bufferSize];
+        for (int i = 0; i < bufferSize; i++) { // Allocate every slot up front.
+            ring[i] = new OrderEvent();
+        }
+        mask = bufferSize - 1;
+        indexShift = Integer.numberOfTrailingZeros(bufferSize);
+        published = new AtomicIntegerArray(bufferSize);
+        for (int i = 0; i < bufferSize; i++) {
+            published.set(i, -1); // No slot has been published for any lap yet.
+        }
+        this.handler = handler;
+    }
+
+    public synchronized void start() {
+        if (running || stopped) { return; }
+        running = true;
+        stageThreads[0] = startStage("pipeline-decode", decoded, this::decode, -1);
+        stageThreads[1] = startStage("pipeline-match", matched, this::match, 0);
+        stageThreads[2] = startStage("pipeline-track", tracked, this::track, 1);
+        stageThreads[3] = startStage("pipeline-publish", publishedTo, this::publish, 2);
+    }
+
+    /**
+     * Stop accepting requests, wait for every request already published to pass through all the stages,
+     * and then stop the stage threads. A pipeline can't be restarted once shut down.
+     *
+     * @throws InterruptedException if interrupted while waiting for the pipeline to drain.
+     */
+    public synchronized void shutdown() throws InterruptedException {
+        if (!running) { return; }
+        running = false;
+        while (activeProducers.get() > 0) { // Let producers that already claimed a slot commit it.
+            Thread.onSpinWait();
+        }
+        stopped = true;
+        for (Thread t : stageThreads) {
+            t.join();
+        }
+    }
+
+    /**
+     * Publish an order to add, waiting only if the ring is full.
+     *
+     * @throws NullArgumentException if the order is null.
+     * @throws InvalidOperationException if the pipeline is not running.
+     */
+    public void publishOrder(Order order) throws NullArgumentException, InvalidOperationException {
+        if (order == null) { throw new NullArgumentException("Invalid Order argument: null"); }
+        activeProducers.incrementAndGet();
+        try {
+            long sequence = claim();
+            ring[(int) sequence & mask].setAdd(order);
+            commit(sequence);
+        } finally {
+            activeProducers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Publish an order to cancel, waiting only if the ring is full.
+     *
+     * @throws NullArgumentException if the order is null.
+     * @throws InvalidOperationException if the pipeline is not running.
+     */
+    public void publishCancel(OrderDTO order) throws NullArgumentException, InvalidOperationException {
+        if (order == null) { throw new NullArgumentException("Invalid OrderDTO argument: null"); }
+        activeProducers.incrementAndGet();
+        try {
+            long sequence = claim();
+            ring[(int) sequence & mask].setCancel(order);
+            commit(sequence);
+        } finally {
+            activeProducers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Publish an order to add if there is a free slot, without ever waiting.
+     *
+     * @return true if the order was published, false if the ring is full or the pipeline is not running.
+     * @throws NullArgumentException if the order is null.
+     */
+    public boolean tryPublishOrder(Order order) throws NullArgumentException {
+        if (order == null) { throw new NullArgumentException("Invalid Order argument: null"); }
+        activeProducers.incrementAndGet();
+        try {
+            long sequence = tryClaim();
+            if (sequence < 0) { return false; }
+            ring[(int) sequence & mask].setAdd(order);
+            commit(sequence);
+            return true;
+        } finally {
+            activeProducers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Publish an order to cancel if there is a free slot, without ever waiting.
+     *
+     * @return true if the cancel was published, false if the ring is full or the pipeline is not running.
+     * @throws NullArgumentException if the order is null.
+     */
+    public boolean tryPublishCancel(OrderDTO order) throws NullArgumentException {
+        if (order == null) { throw new NullArgumentException("Invalid OrderDTO argument: null"); }
+        activeProducers.incrementAndGet();
+        try {
+            long sequence = tryClaim();
+            if (sequence < 0) { return false; }
+            ring[(int) sequence & mask].setCancel(order);
+            commit(sequence);
+            return true;
+        } finally {
+            activeProducers.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of requests that have been published but not yet finished by every stage.
+     */
+    public long getBacklog() {
+        return claimed.get() - publishedTo.get();
+    }
+
+    /**
+     * @return the number of times the result handler has thrown.
+     */
+    public long getHandlerFailureCount() { return handlerFailures; }
+
+    /**
+     * @return the exception the result handler last threw, or null if it never has.
+     */
+    public RuntimeException getLastHandlerFailure() { return lastHandlerFailure; }
+
+    private long claim() throws InvalidOperationException {
+        int tries = 0;
+        long sequence;
+        while ((sequence = tryClaim()) < 0) { // The ring is full, wait for the publish stage to free a slot.
+            if (!running) { throw new InvalidOperationException("OrderPipeline is not running"); }
+            tries = idle(tries);
+        }
+        return sequence;
+    }
+
+    /**
+     * @return the next free sequence claimed for the caller, or -1 if the ring is full or not running.
+     */
+    private long tryClaim() {
+        long current;
+        long next;
+        do {
+            if (!running) { return -1; }
+            current = claimed.get();
+            next = current + 1;
+            if (next - ring.length > publishedTo.get()) { return -1; } // The slot is still in use a lap behind.
+        } while (!claimed.compareAndSet(current, next));
+        return next;
+    }
+
+    private void commit(long sequence) {
+        published.set((int) sequence & mask, (int) (sequence >>> indexShift));
+    }
+
+    /** A pipeline stage's work on a single event. */
+    private interface Stage {
+        void handle(OrderEvent event);
+    }
+
+    private Thread startStage(String name, AtomicLong own, Stage stage, int upstream) {
+        Thread t = new Thread(() -> runStage(own, stage, upstream), name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    /**
+     * Run a stage until the pipeline stops and every request has drained through it. Each pass processes all
+     * the slots available behind the stage's barrier as one batch, then publishes its progress once.
+     */
+    private void runStage(AtomicLong own, Stage stage, int upstream) {
+        long next = own.get() + 1;
+        int tries = 0;
+        while (true) {
+            long available = availableTo(upstream, next);
+            if (available >= next) {
+                for (long s = next; s <= available; s++) {
+                    stage.handle(ring[(int) s & mask]);
+                }
+                own.set(available);
+                next = available + 1;
+                tries = 0;
+            } else if (stopped && next > claimed.get()) {
+                return; // Stopped, and everything claimed has been through this stage.
+            } else {
+                tries = idle(tries);
+            }
+        }
+    }
+
+    /**
+     * @return the highest sequence a stage may process, given the upstream stage it follows (-1 for producers).
+     */
+    private long availableTo(int upstream, long next) {
+        if (upstream >= 0) { return barrier(upstream).get(); }
+
+        // Producers publish out of order, so only take the contiguous run of published slots:
+        long highest = next - 1;
+        long claimedTo = claimed.get();
+        for (long s = next; s <= claimedTo; s++) {
+            if (published.get((int) s & mask) != (int) (s >>> indexShift)) { break; }
+            highest = s;
+        }
+        return highest;
+    }
+
+    private AtomicLong barrier(int stage) {
+        return switch (stage) {
+            case 0 -> decoded;
+            case 1 -> matched;
+            default -> tracked;
+        };
+    }
+
+    private static int idle(int tries) {
+        if (tries < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        return tries + 1;
+    }
+
+    // Stage 1: validate the request and resolve its product book.
+    private void decode(OrderEvent e) {
+        try {
+            String symbol = (e.type == OrderEvent.Type.ADD) ? e.order.getProduct() : e.cancel.product;
+            e.book = (e.type == OrderEvent.Type.ADD) ? ProductManager.getInstance().getProductBook(e.order.getProductId())
+                    : ProductManager.getInstance().getProductBook(symbol);
+            if (e.book == null) {
+                throw new InvalidArgumentException("Invalid Order argument: the orders product symbol " + symbol + " does not exist");
+            }
+            if (e.type == OrderEvent.Type.CANCEL && e.cancel.side == null) {
+                throw new NullArgumentException("Invalid BookSide argument: null");
+            }
+        } catch (Exception ex) {
+            e.error = ex;
+        }
+    }
+
+    // Stage 2: apply the request to the book, the single writer of every book.
+    private void match(OrderEvent e) {
+        if (e.error != null) { return; }
+        try {
+            e.result = (e.type == OrderEvent.Type.ADD) ? e.book.addWithoutMarketUpdate(e.order)
+                    : e.book.cancelWithoutMarketUpdate(e.cancel.side, e.cancel.orderId);
+            // Capture the top-of-book now, later stages run behind while the book keeps changing.
+            e.buyPrice = e.book.getTopOfBookPrice(BookSide.BUY);
+            e.buyVolume = e.book.getTopOfBookVolume(BookSide.BUY);
+            e.sellPrice = e.book.getTopOfBookPrice(BookSide.SELL);
+            e.sellVolume = e.book.getTopOfBookVolume(BookSide.SELL);
+            DepthPublisher.getInstance().publish(e.book); // Depth is read from the book, so it can't wait.
+        } catch (Exception ex) {
+            e.error = ex;
+        }
+    }
+
+    // Stage 3: record and log the current market.
+    private void track(OrderEvent e) {
+        if (e.error != null) { return; }
+        try {
+            e.market = CurrentMarketTracker.getInstance().trackMarket(e.book.getProductId(),
+                    e.buyPrice, e.buyVolume, e.sellPrice, e.sellVolume);
+        } catch (Exception ex) {
+            e.error = ex;
+        }
+    }
+
+    // Stage 4: notify the market observers and the result handler, then release the slot's references.
+    private void publish(OrderEvent e) {
+        try {
+            if (e.error == null) {
+                CurrentMarketPublisher.getInstance().acceptCurrentMarket(e.market);
+            }
+        } catch (Exception ex) {
+            e.error = ex;
+        }
+        try {
+            if (handler != null) { handler.onResult(e); }
+        } catch (RuntimeException ex) { // A failing handler must not stall the pipeline, count it instead.
+            lastHandlerFailure = ex;
+            handlerFailures++;
+        }
+        e.clear();
+    }
+}
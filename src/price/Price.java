@@ -2,8 +2,6 @@ package price;
 
 import exceptions.NullArgumentException;
 
-import java.util.Objects;
-
 public class Price implements Comparable<Price> {
 
     private final long value; // Price value stored in cents.
@@ -169,5 +167,8 @@ public class Price implements Comparable<Price> {
      * @return an integer hash code value for this Price object.
      */
     @Override
-    public int hashCode() { return Objects.hash(value); }
+    public int hashCode() {
+        // Same hash as Objects.hash(value), without allocating a varargs array and boxing the value.
+        return 31 + Long.hashCode(value);
+    }
 }
@@ -3,34 +3,94 @@ package price;
 import exceptions.InvalidArgumentException;
 import exceptions.NullArgumentException;
 
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /** A factory class for creating Price objects.*/
 public abstract class PriceFactory {
 
     /**
-     * Track the previously created Price objects mapped to their value to implement the flyweight pattern.
+     * Cent values in [0, DENSE_LIMIT) are interned in a directly indexed table, covering every price up
+     * to $1,310.71 without hashing. Each slot is filled once and then never changes.
      */
-    private static final HashMap<Long, Price> createdPrices = new HashMap<Long, Price>();
+    private static final int DENSE_LIMIT = 1 << 17;
+    private static final AtomicReferenceArray<Price> densePrices = new AtomicReferenceArray<>(DENSE_LIMIT);
 
     /**
-     * A Factory method to construct a Price object.
+     * Any other values (negative or large prices) share a bounded, direct-mapped cache: each value hashes to
+     * a single slot, and a new value evicts whatever Price held its slot. This caps the memory used by the
+     * flyweight no matter how many distinct prices pass through over a trading day.
+     */
+    private static final int OVERFLOW_CAPACITY = 1 << 14; // Must be a power of two.
+    private static final AtomicReferenceArray<Price> overflowPrices = new AtomicReferenceArray<>(OVERFLOW_CAPACITY);
+
+    /** Returned by scanCents() for input it leaves to parseCentsRegex(); never a value it can produce. */
+    private static final long UNHANDLED = Long.MIN_VALUE;
+    /** The fast path handles up to 16 dollar digits, so the cents value can't overflow. */
+    private static final int MAX_FAST_DOLLAR_DIGITS = 16;
+
+    // Cache statistics, striped so concurrent callers don't contend on a single counter:
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+
+    /**
+     * A Factory method to construct a Price object. Safe to call from any thread without locking; values
+     * in the dense band always return the same shared instance, other values do while they stay cached.
      *
      * @param value a long/integer number representing the price value in cents.
-     * @return a new Price object for the specified cents value.
+     * @return a Price object for the specified cents value.
      */
     public static Price makePrice(long value) {
         // Uses the flyweight pattern to avoid creating multiple Price objects for the same value:
-        Price price = createdPrices.get(value); // Get the Price obj for the given value from the map.
-        if (price == null) {
-            // If the object doesn't exist, then create a new Price and add it to the map for later.
-            price = new Price(value);
-            createdPrices.put(value, price);
+        if (value >= 0 && value < DENSE_LIMIT) {
+            int index = (int) value;
+            Price price = densePrices.get(index);
+            if (price != null) {
+                hits.increment();
+                return price;
+            }
+            misses.increment();
+            // Publish a new Price, unless another thread beat us to it, then use theirs.
+            Price created = new Price(value);
+            return densePrices.compareAndSet(index, null, created) ? created : densePrices.get(index);
         }
 
-        return price;
+        int slot = overflowSlot(value);
+        Price price = overflowPrices.get(slot);
+        if (price != null && price.getValue() == value) {
+            hits.increment();
+            return price;
+        }
+        misses.increment();
+        Price created = new Price(value);
+        Price previous = overflowPrices.getAndSet(slot, created);
+        if (previous != null && previous.getValue() != value) { evictions.increment(); }
+        return created;
     }
 
+    private static int overflowSlot(long value) {
+        long h = value * 0x9E3779B97F4A7C15L; // Spread nearby cent values across the table.
+        return (int) (h ^ (h >>> 32)) & (OVERFLOW_CAPACITY - 1);
+    }
+
+    /**
+     * @return the number of makePrice(long) calls answered with an already cached Price.
+     */
+    public static long getCacheHits() { return hits.sum(); }
+
+    /**
+     * @return the number of makePrice(long) calls that had to create a new Price.
+     */
+    public static long getCacheMisses() { return misses.sum(); }
+
+    /**
+     * @return the number of cached Prices displaced from the bounded overflow cache by a different value.
+     */
+    public static long getCacheEvictions() { return evictions.sum(); }
+
     /**
      * A Factory method that converts a string representation to construct a Price object; accepts a range of
      * different string representations.<br><br>
@@ -52,6 +112,108 @@ public abstract class PriceFactory {
      * @throws InvalidArgumentException if the value string is empty, or not a valid number value.
      */
     public static Price makePrice(String valueStr) throws NullArgumentException, InvalidArgumentException {
+        return makePrice(parseCents(valueStr));
+    }
+
+    /**
+     * Parses a price representation straight to cents in a single pass, without creating any intermediate
+     * strings. Accepts exactly the same format as {@link #makePrice(String)}, including its truncation rules.
+     *
+     * @param value a price representation, such as a String or a region of a larger character buffer.
+     * @return the price value in cents.
+     * @throws NullArgumentException if the value is null.
+     * @throws InvalidArgumentException if the value is empty, or not a valid number value.
+     */
+    public static long parseCents(CharSequence value) throws NullArgumentException, InvalidArgumentException {
+        if (value == null) { throw new NullArgumentException("Invalid valueStr argument: null"); }
+        if (value.length() == 0) { throw new InvalidArgumentException("Invalid valueStr argument: empty string"); }
+
+        long cents = scanCents(value, null, 0, value.length());
+        return (cents != UNHANDLED) ? cents : parseCentsRegex(value.toString());
+    }
+
+    /**
+     * Parses an ASCII (or UTF-8) encoded price representation to cents in a single pass, reading the bytes
+     * between the buffer's position and limit. The buffer's position is left unchanged. Accepts exactly the
+     * same format as {@link #makePrice(String)}, including its truncation rules.
+     *
+     * @param buffer a buffer holding the encoded price representation.
+     * @return the price value in cents.
+     * @throws NullArgumentException if the buffer is null.
+     * @throws InvalidArgumentException if the buffer has no bytes remaining, or is not a valid number value.
+     */
+    public static long parseCents(ByteBuffer buffer) throws NullArgumentException, InvalidArgumentException {
+        if (buffer == null) { throw new NullArgumentException("Invalid valueStr argument: null"); }
+        if (!buffer.hasRemaining()) { throw new InvalidArgumentException("Invalid valueStr argument: empty string"); }
+
+        long cents = scanCents(null, buffer, buffer.position(), buffer.limit());
+        if (cents != UNHANDLED) { return cents; }
+        byte[] bytes = new byte[buffer.remaining()]; // Only unusual input is decoded to a String.
+        buffer.get(buffer.position(), bytes);
+        return parseCentsRegex(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Scans the common "[$][-]d*[.cc]" forms, reading chars from either the sequence or the buffer.
+     * Anything unusual (inner whitespace, exponents, suffixes, very long numbers, a "+" with no dollar digits,
+     * or invalid input) returns {@link #UNHANDLED}, so parseCentsRegex() decides it exactly as before.
+     */
+    private static long scanCents(CharSequence chars, ByteBuffer bytes, int start, int end) {
+        // Trim surrounding whitespace, as String.strip() does:
+        while (start < end && Character.isWhitespace(charAt(chars, bytes, start))) { start++; }
+        while (end > start && Character.isWhitespace(charAt(chars, bytes, end - 1))) { end--; }
+
+        boolean signAllowed = true;
+        boolean negative = false;
+        boolean plus = false;
+        boolean point = false;
+        long dollars = 0;
+        int dollarDigits = 0;
+        long cents = 0;
+        int centsDigits = 0;
+        for (int i = start; i < end; i++) {
+            char c = charAt(chars, bytes, i);
+            if (c == '$' || c == ',') { continue; } // Dollar signs and commas are ignored wherever they appear.
+
+            if (signAllowed && (c == '-' || c == '+')) { // A sign may only lead the number.
+                negative = (c == '-');
+                plus = (c == '+');
+            } else if (c >= '0' && c <= '9') {
+                if (!point) {
+                    if (++dollarDigits > MAX_FAST_DOLLAR_DIGITS) { return UNHANDLED; }
+                    dollars = (dollars * 10) + (c - '0');
+                } else if (centsDigits < 2) { // Any additional cents digits are truncated.
+                    cents = (cents * 10) + (c - '0');
+                    centsDigits++;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                return UNHANDLED;
+            }
+            signAllowed = false;
+        }
+
+        if (dollarDigits == 0 && (centsDigits == 0 || plus)) { return UNHANDLED; }
+        if (centsDigits == 1) { cents *= 10; } // A single cents digit is tenths (ex: .8 = .80).
+        long value = (dollars * 100) + cents;
+        return negative ? -value : value;
+    }
+
+    private static char charAt(CharSequence chars, ByteBuffer bytes, int index) {
+        return (chars != null) ? chars.charAt(index) : (char) (bytes.get(index) & 0xFF);
+    }
+
+    /**
+     * The original, regular expression based parser behind {@link #makePrice(String)}. Kept as the reference
+     * for the accepted format, and used by the single-pass parser for any input outside its fast path.
+     *
+     * @param valueStr a string price representation.
+     * @return the price value in cents.
+     * @throws NullArgumentException if the value string is null.
+     * @throws InvalidArgumentException if the value string is empty, or not a valid number value.
+     */
+    public static long parseCentsRegex(String valueStr) throws NullArgumentException, InvalidArgumentException {
         if (valueStr == null) { throw new NullArgumentException("Invalid valueStr argument: null"); }
         if (valueStr.isEmpty()) { throw new InvalidArgumentException("Invalid valueStr argument: empty string"); }
 
@@ -83,7 +245,7 @@ public abstract class PriceFactory {
                 }
             }
 
-            return makePrice((dollars * 100) + cents); // Create a Price with the dollars and cents combined.
+            return (dollars * 100) + cents; // Combine the dollars and cents.
         } catch (NumberFormatException e) {
             throw new InvalidArgumentException("Invalid valueStr argument '" + valueStr +"': " + e.getMessage());
         }
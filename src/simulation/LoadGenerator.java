@@ -0,0 +1,343 @@
+package simulation;
+
+import benchmark.GcStats;
+import benchmark.LatencyHistogram;
+import book.BookSide;
+import book.ProductManager;
+import exceptions.DataValidationException;
+import exceptions.InvalidRangeException;
+import exceptions.TradingApplicationException;
+import journal.JournalManager;
+import journal.OrderJournal;
+import journal.SnapshotScheduler;
+import logging.EventLogManager;
+import price.Price;
+import price.PriceFactory;
+import tracking.CurrentMarketPublisher;
+import tradable.Order;
+import tradable.OrderDTO;
+import tradable.TradablePool;
+import user.User;
+import user.UserManager;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * A headless, high-volume version of the {@link TrafficSim} for soak testing. Several producer threads each
+ * send a stream of adds, cancels and crossing adds from their own users, using their own seeded random
+ * number generator, so a run can be repeated exactly. Nothing is printed until the end of the run, when
+ * the throughput and latency histograms of each operation type are reported.
+ * <br><br>
+ * By default each producer thread is given its own share of the symbols and matches them inline, so every
+ * book still has a single writer. With matching=threads every symbol gets a dedicated matching thread from
+ * the {@link ProductManager} instead, and producers trade any symbol.
+ * <br><br>
+ * With pooling=true orders are taken from the {@link TradablePool} instead of being created, and recycled
+ * once they leave the book, to compare the garbage collection load of the two.
+ * <br><br>
+ * With journal=path every request and fill is recorded in an {@link OrderJournal} at that path, synced as
+ * the fsync option says (none, group or sync), and the run can be rebuilt later with "replay path".
+ * With snapshots=dir as well, a snapshot of the books and users is taken into that directory every
+ * snapshotEvery milliseconds, and the run can be rebuilt from the latest one with "recover dir path".
+ * <br><br>
+ * Options are "name=value" pairs, with these defaults:
+ * <pre>
+ *     users=2000  symbols=1000  threads=4  ops=250000 (per thread)  seed=42  subscriptions=2 (per user)
+ *     add=0.6  cancel=0.3  cross=0.1  matching=inline  pooling=false  journal=(none)  fsync=group
+ *     snapshots=(none)  snapshotEvery=1000
+ * </pre>
+ */
+public final class LoadGenerator {
+
+    /** The largest number of 3 letter user ids. */
+    private static final int MAX_USERS = 26 * 26 * 26;
+    private static final int PRICE_TICKS = 20; // Resting orders are priced up to this many ticks from the base.
+
+    /** The kinds of operation sent. */
+    private enum Op {
+        ADD, CANCEL, CROSS
+    }
+
+    private final int userCount;
+    private final int symbolCount;
+    private final int threadCount;
+    private final int opsPerThread;
+    private final long seed;
+    private final int subscriptions;
+    private final double cancelRatio;
+    private final double crossRatio;
+    private final boolean threadedMatching;
+    private final boolean pooling;
+    private final String journalPath;
+    private final OrderJournal.FsyncPolicy fsync;
+    private final String snapshotDir;
+    private final long snapshotEvery;
+
+    private String[] userIds;
+    private String[] symbols;
+    private long[] basePrices; // In cents, by symbol index.
+    private int[] productIds; // By symbol index.
+
+    private LoadGenerator(Map<String, String> options) throws InvalidRangeException {
+        userCount = Integer.parseInt(options.getOrDefault("users", "2000"));
+        symbolCount = Integer.parseInt(options.getOrDefault("symbols", "1000"));
+        threadCount = Integer.parseInt(options.getOrDefault("threads", "4"));
+        opsPerThread = Integer.parseInt(options.getOrDefault("ops", "250000"));
+        seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        subscriptions = Integer.parseInt(options.getOrDefault("subscriptions", "2"));
+        double addRatio = Double.parseDouble(options.getOrDefault("add", "0.6"));
+        double cancel = Double.parseDouble(options.getOrDefault("cancel", "0.3"));
+        double cross = Double.parseDouble(options.getOrDefault("cross", "0.1"));
+        String matching = options.getOrDefault("matching", "inline");
+        String pool = options.getOrDefault("pooling", "false");
+        journalPath = options.get("journal");
+        String sync = options.getOrDefault("fsync", "group");
+        snapshotDir = options.get("snapshots");
+        snapshotEvery = Long.parseLong(options.getOrDefault("snapshotEvery", "1000"));
+
+        if (userCount < 1 || userCount > MAX_USERS) { throw new InvalidRangeException("Invalid users option " + userCount + ": must be 1 to " + MAX_USERS); }
+        if (symbolCount < 1 || symbolCount > 36 * 36 * 36 * 36) { throw new InvalidRangeException("Invalid symbols option " + symbolCount + ": must be 1 to " + (36 * 36 * 36 * 36)); }
+        if (threadCount < 1) { throw new InvalidRangeException("Invalid threads option " + threadCount + ": must be greater than 0"); }
+        // Each producer needs users of its own, and symbols of its own when matching inline:
+        if (userCount < threadCount) { throw new InvalidRangeException("Invalid users option " + userCount + ": must be at least the number of threads"); }
+        if (opsPerThread < 0) { throw new InvalidRangeException("Invalid ops option " + opsPerThread + ": must not be negative"); }
+        if (addRatio < 0 || cancel < 0 || cross < 0 || addRatio + cancel + cross <= 0) {
+            throw new InvalidRangeException("Invalid add/cancel/cross options: must not be negative, and must not all be 0");
+        }
+        if (!matching.equals("inline") && !matching.equals("threads")) { throw new InvalidRangeException("Invalid matching option " + matching + ": must be inline or threads"); }
+        if (!pool.equals("true") && !pool.equals("false")) { throw new InvalidRangeException("Invalid pooling option " + pool + ": must be true or false"); }
+        if (!sync.equals("none") && !sync.equals("group") && !sync.equals("sync")) { throw new InvalidRangeException("Invalid fsync option " + sync + ": must be none, group or sync"); }
+        fsync = OrderJournal.FsyncPolicy.valueOf(sync.toUpperCase(Locale.ROOT));
+        if (snapshotEvery < 1) { throw new InvalidRangeException("Invalid snapshotEvery option " + snapshotEvery + ": must be greater than 0"); }
+
+        // Normalize the mix, so it doesn't have to add up to 1:
+        double total = addRatio + cancel + cross;
+        cancelRatio = cancel / total;
+        crossRatio = cross / total;
+        threadedMatching = matching.equals("threads");
+        pooling = pool.equals("true");
+        if (!threadedMatching && symbolCount < threadCount) { throw new InvalidRangeException("Invalid symbols option " + symbolCount + ": must be at least the number of threads when matching inline"); }
+    }
+
+    /**
+     * Run the load generator with "name=value" options, then print the report.
+     *
+     * @param args the options, see the class description.
+     */
+    public static void run(String[] args) {
+        try {
+            Map<String, String> options = new HashMap<>();
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (eq <= 0) { throw new InvalidRangeException("Invalid option " + arg + ": expected name=value"); }
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+            new LoadGenerator(options).run();
+        } catch (TradingApplicationException | InterruptedException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void run() throws TradingApplicationException, InterruptedException, IOException {
+        EventLogManager.getInstance().disable(); // Headless, and logging would dominate the measurements.
+        setUp();
+        OrderJournal journal = null;
+        if (journalPath != null) {
+            journal = OrderJournal.open(Path.of(journalPath), fsync);
+            JournalManager.getInstance().setJournal(journal);
+        }
+        SnapshotScheduler snapshots = null;
+        if (snapshotDir != null) {
+            snapshots = new SnapshotScheduler(Path.of(snapshotDir), snapshotEvery, 3);
+            snapshots.start();
+        }
+        if (threadedMatching) { ProductManager.getInstance().startMatchingThreads(); }
+
+        Producer[] producers = new Producer[threadCount];
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            producers[t] = new Producer(t);
+            threads[t] = new Thread(producers[t], "load-producer-" + t);
+        }
+
+        long gcCountBefore = GcStats.count();
+        long gcMillisBefore = GcStats.timeMillis();
+        long start = System.nanoTime();
+        for (Thread thread : threads) { thread.start(); }
+        for (Thread thread : threads) { thread.join(); }
+        if (threadedMatching) { ProductManager.getInstance().stopMatchingThreads(); } // Drain the queues.
+        if (snapshots != null) { snapshots.stop(); }
+        if (journal != null) { JournalManager.getInstance().disable(); } // Commits the rest before closing.
+        long elapsed = System.nanoTime() - start;
+
+        report(producers, elapsed, GcStats.count() - gcCountBefore, GcStats.timeMillis() - gcMillisBefore);
+        if (journal != null) { System.out.println(journal); }
+        if (snapshots != null) { System.out.println(snapshots); }
+    }
+
+    /** Create the products, users and subscriptions. Symbol and user ids are derived from their index. */
+    private void setUp() throws TradingApplicationException {
+        SplittableRandom random = new SplittableRandom(seed);
+        symbols = new String[symbolCount];
+        basePrices = new long[symbolCount];
+        productIds = new int[symbolCount];
+        for (int i = 0; i < symbolCount; i++) {
+            symbols[i] = "L" + Integer.toString(i, 36).toUpperCase(Locale.ROOT);
+            basePrices[i] = 1000 + random.nextInt(50000); // $10.00 to $509.99.
+            productIds[i] = ProductManager.getInstance().addProduct(symbols[i]);
+        }
+
+        userIds = new String[userCount];
+        for (int i = 0; i < userCount; i++) {
+            char[] id = {(char) ('A' + i / 676), (char) ('A' + (i / 26) % 26), (char) ('A' + i % 26)};
+            userIds[i] = new String(id);
+        }
+        UserManager.getInstance().init(userIds);
+        for (String id : userIds) {
+            User user = UserManager.getInstance().getUser(id);
+            for (int s = 0; s < subscriptions; s++) {
+                CurrentMarketPublisher.getInstance().subscribeCurrentMarket(symbols[random.nextInt(symbolCount)], user);
+            }
+        }
+    }
+
+    /** One producer thread, with its own random number generator, users, and (when matching inline) symbols. */
+    private final class Producer implements Runnable {
+        final int index;
+        final SplittableRandom random;
+        final LatencyHistogram[] latencies = {new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram()};
+        /**
+         * Orders this producer has added and not yet cancelled, though some will have traded. Kept by id rather
+         * than as {@link OrderDTO}s, which belong to the user once added and are recycled when pooling.
+         */
+        long[] liveIds = new long[1024];
+        int[] liveSymbols = new int[1024];
+        BookSide[] liveSides = new BookSide[1024];
+        int liveCount;
+        long failures;
+        Exception firstFailure;
+
+        Producer(int index) {
+            this.index = index;
+            this.random = new SplittableRandom(seed + 1 + index);
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < opsPerThread; i++) {
+                double roll = random.nextDouble();
+                Op op = (roll < cancelRatio) ? Op.CANCEL : (roll < cancelRatio + crossRatio) ? Op.CROSS : Op.ADD;
+                if (op == Op.CANCEL && liveCount == 0) { op = Op.ADD; } // Nothing to cancel yet.
+                try {
+                    if (op == Op.CANCEL) {
+                        cancel();
+                    } else {
+                        add(op == Op.CROSS);
+                    }
+                } catch (DataValidationException | RuntimeException e) {
+                    failures++;
+                    if (firstFailure == null) { firstFailure = e; }
+                }
+            }
+        }
+
+        private void add(boolean cross) throws DataValidationException {
+            User user = UserManager.getInstance().getUser(userIds[pickOwned(userCount)]);
+            int symbolIndex = pickSymbol();
+            BookSide side = random.nextBoolean() ? BookSide.BUY : BookSide.SELL;
+            // Resting orders sit on their own side of the base price, crossing orders reach through the far side.
+            long ticks = cross ? -(PRICE_TICKS + 5) : 1 + random.nextInt(PRICE_TICKS);
+            long cents = (side == BookSide.BUY) ? basePrices[symbolIndex] - ticks : basePrices[symbolIndex] + ticks;
+            Price price = PriceFactory.makePrice(cents);
+            int volume = 5 * (1 + random.nextInt(60));
+            Order order = pooling ? TradablePool.acquireOrder(user.getUserId(), symbols[symbolIndex], side, price, volume)
+                    : new Order(user.getUserId(), symbols[symbolIndex], side, price, volume);
+            long orderId = order.getOrderId(); // Read before adding, a pooled order is recycled once it fills.
+
+            long opStart = System.nanoTime();
+            OrderDTO dto = ProductManager.getInstance().addOrder(order);
+            latencies[(cross ? Op.CROSS : Op.ADD).ordinal()].record(System.nanoTime() - opStart);
+            user.addOrder(dto);
+            addLive(orderId, symbolIndex, side);
+        }
+
+        private void addLive(long orderId, int symbolIndex, BookSide side) {
+            if (liveCount == liveIds.length) {
+                liveIds = Arrays.copyOf(liveIds, liveCount * 2);
+                liveSymbols = Arrays.copyOf(liveSymbols, liveCount * 2);
+                liveSides = Arrays.copyOf(liveSides, liveCount * 2);
+            }
+            liveIds[liveCount] = orderId;
+            liveSymbols[liveCount] = symbolIndex;
+            liveSides[liveCount++] = side;
+        }
+
+        private void cancel() throws DataValidationException {
+            int pick = random.nextInt(liveCount);
+            long orderId = liveIds[pick];
+            int symbolIndex = liveSymbols[pick];
+            BookSide side = liveSides[pick];
+            liveCount--; // Swap remove, each order is cancelled once.
+            liveIds[pick] = liveIds[liveCount];
+            liveSymbols[pick] = liveSymbols[liveCount];
+            liveSides[pick] = liveSides[liveCount];
+
+            long opStart = System.nanoTime();
+            OrderDTO cancelled = ProductManager.getInstance().cancel(productIds[symbolIndex], side, orderId);
+            latencies[Op.CANCEL.ordinal()].record(System.nanoTime() - opStart);
+            if (cancelled != null) { UserManager.getInstance().getUser(cancelled.user).addOrder(cancelled); }
+        }
+
+        /** A symbol this producer may trade: any symbol when matching threads are used, else only its own share. */
+        private int pickSymbol() {
+            if (threadedMatching) { return random.nextInt(symbolCount); }
+            return pickOwned(symbolCount);
+        }
+
+        /**
+         * Pick an index from this producer's share of 0 to count - 1 (index, index + threads, ...). Users are
+         * always split this way, as a User's orders have a single writer.
+         */
+        private int pickOwned(int count) {
+            int owned = (count - index + threadCount - 1) / threadCount;
+            return index + threadCount * random.nextInt(owned);
+        }
+    }
+
+    private void report(Producer[] producers, long elapsedNanos, long gcCount, long gcMillis) {
+        LatencyHistogram[] latencies = {new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram()};
+        long failures = 0;
+        Exception firstFailure = null;
+        for (Producer p : producers) {
+            for (int i = 0; i < latencies.length; i++) { latencies[i].add(p.latencies[i]); }
+            failures += p.failures;
+            if (firstFailure == null) { firstFailure = p.firstFailure; }
+        }
+        long totalOps = 0;
+        for (LatencyHistogram h : latencies) { totalOps += h.getCount(); }
+
+        StringBuilder out = new StringBuilder("Load generator report\n");
+        out.append(String.format(Locale.ROOT, "users=%d symbols=%d threads=%d ops/thread=%d seed=%d matching=%s pooling=%b cancel=%.2f cross=%.2f%n",
+                userCount, symbolCount, threadCount, opsPerThread, seed, threadedMatching ? "threads" : "inline", pooling, cancelRatio, crossRatio));
+        out.append(String.format(Locale.ROOT, "elapsed=%.3fs ops=%d ops/sec=%.0f failures=%d%n",
+                elapsedNanos / 1e9, totalOps, totalOps * 1e9 / elapsedNanos, failures));
+        for (Op op : Op.values()) {
+            LatencyHistogram h = latencies[op.ordinal()];
+            out.append(String.format(Locale.ROOT, "%-6s count=%d latency ns: %s%n", op.name().toLowerCase(Locale.ROOT), h.getCount(), h));
+        }
+        out.append(String.format(Locale.ROOT, "market callbacks=%d price cache hits=%d misses=%d",
+                CurrentMarketPublisher.getInstance().getDeliveredCount(), PriceFactory.getCacheHits(), PriceFactory.getCacheMisses()));
+        if (pooling) {
+            out.append(String.format(Locale.ROOT, "%npool created=%d reused=%d", TradablePool.getCreatedCount(), TradablePool.getReusedCount()));
+        }
+        out.append(String.format(Locale.ROOT, "%ngc collections=%d time=%dms", gcCount, gcMillis));
+        System.out.println(out);
+        if (firstFailure != null) { firstFailure.printStackTrace(); }
+    }
+}
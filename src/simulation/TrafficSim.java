@@ -3,20 +3,26 @@ package simulation;
 import book.BookSide;
 import book.ProductManager;
 import exceptions.*;
+import journal.JournalReplay;
+import logging.ConsoleEventLog;
+import logging.EventLogManager;
 import price.Price;
 import price.PriceFactory;
 import tracking.CurrentMarketPublisher;
 import tradable.Order;
 import tradable.OrderDTO;
+import tradable.SymbolRegistry;
 import user.User;
 import user.UserManager;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 public final class TrafficSim {
 
-    /** Store base prices for realistic simulation. Mapping the stock symbol to the base price. */
-    private static final HashMap<String, Double> basePrices = new HashMap<>();
+    /** Store base prices for realistic simulation. Mapping the product id of the stock symbol to the base price. */
+    private static double[] basePrices = new double[0];
     /** The number of trade operations to simulate. */
     private static final int SIM_ITERATIONS = 1000;
 
@@ -33,12 +39,12 @@ public final class TrafficSim {
      */
     private static void initData() throws InvalidArgumentException, NullArgumentException {
         // Store base prices for stock symbols:
-        basePrices.put("WMT", 140.98);
-        basePrices.put("TGT", 174.76);
-        basePrices.put("AMZN", 102.11);
-        basePrices.put("TSLA", 196.81);
-        for (String symbol : basePrices.keySet()) { // Initialize ProductBooks.
-            ProductManager.getInstance().addProduct(symbol);
+        String[] symbols = {"WMT", "TGT", "AMZN", "TSLA"};
+        double[] prices = {140.98, 174.76, 102.11, 196.81};
+        for (int i = 0; i < symbols.length; i++) { // Initialize ProductBooks.
+            int productId = ProductManager.getInstance().addProduct(symbols[i]);
+            if (productId >= basePrices.length) { basePrices = Arrays.copyOf(basePrices, productId + 1); }
+            basePrices[productId] = prices[i];
         }
 
         UserManager.getInstance().init(new String[]{"ANN", "BOB", "CAT", "DOG", "EGG"}); // Initialize all users.
@@ -89,6 +95,8 @@ public final class TrafficSim {
 
     public static void runSim() {
         try {
+            // Log fills and markets synchronously, so they print in step with each simulated operation.
+            EventLogManager.getInstance().setLog(new ConsoleEventLog());
             initData(); // Set up Users, ProductBooks, and user market subscriptions for the simulation.
 
             // Simulate user unSubscribe to test.
@@ -101,11 +109,12 @@ public final class TrafficSim {
 
                 if (Math.random() < 0.9) { // Add a random order to the user.
                     // Pick a random options for product, side, volume, and price:
-                    String productSymbol = ProductManager.getInstance().getRandomProduct();
+                    int productId = ProductManager.getInstance().getRandomProductId();
+                    String productSymbol = SymbolRegistry.getInstance().symbolOf(productId);
                     BookSide side = (Math.random() < 0.5) ? BookSide.BUY : BookSide.SELL;
                     int volume = (int) (25 + (Math.random() * 300));
                     volume = (int) Math.round(volume / 5.0) * 5;
-                    Price price = getPrice(productSymbol, side);
+                    Price price = getPrice(productId, side);
 
                     try { // Create and add the new order on the product books and in the user.
                         Order order = new Order(user.getUserId(), productSymbol, side, price, volume);
@@ -141,13 +150,59 @@ public final class TrafficSim {
         }
     }
 
-    private static Price getPrice(String symbol, BookSide side) throws NullArgumentException, InvalidArgumentException {
-        if (symbol == null) { throw new NullArgumentException("Invalid symbol argument: null"); }
+    /**
+     * Run the headless, high-volume {@link LoadGenerator} instead of the printed simulation.
+     *
+     * @param args the load generator's "name=value" options.
+     */
+    public static void runLoad(String[] args) {
+        LoadGenerator.run(args);
+    }
+
+    /**
+     * Rebuild the product books and users from an order journal, such as one written by the load generator,
+     * then print how long it took and a count of what was rebuilt.
+     *
+     * @param path the journal file.
+     */
+    public static void runReplay(String path) {
+        try {
+            EventLogManager.getInstance().disable(); // Don't log the replayed fills.
+            JournalReplay.Result result = JournalReplay.replay(Path.of(path));
+            System.out.println(result);
+            System.out.println("Products: " + SymbolRegistry.getInstance().size() + ", last order id: " + result.lastOrderId);
+        } catch (IOException | TradingApplicationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Rebuild the books and users from the latest snapshot in a directory and the journal written after it,
+     * then print what was restored.
+     *
+     * @param snapshotDir the snapshot directory.
+     * @param journalPath the journal file.
+     */
+    public static void runRecover(String snapshotDir, String journalPath) {
+        try {
+            EventLogManager.getInstance().disable(); // Don't log the replayed fills.
+            JournalReplay.Result result = JournalReplay.recover(Path.of(snapshotDir), Path.of(journalPath));
+            System.out.println(result);
+            System.out.println("Products: " + SymbolRegistry.getInstance().size() + ", last order id: " + result.lastOrderId);
+        } catch (IOException | TradingApplicationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param productId the product's id, see {@link SymbolRegistry}.
+     */
+    private static Price getPrice(int productId, BookSide side) throws NullArgumentException, InvalidArgumentException {
         if (side == null) { throw new NullArgumentException("Invalid BookSide argument: null"); }
 
-        // Get base price for the symbol and validate the output:
-        Double basePrice = basePrices.get(symbol);
-        if (basePrice == null) { throw new InvalidArgumentException("Invalid symbol argument: no base price exists for the symbol " + symbol); }
+        // Get base price for the product and validate the output:
+        double basePrice = (productId >= 0 && productId < basePrices.length) ? basePrices[productId] : 0;
+        if (basePrice == 0) { throw new InvalidArgumentException("Invalid productId argument: no base price exists for the product " + SymbolRegistry.getInstance().symbolOf(productId)); }
 
         // Calculate a random price variation:
         double gapFromBase = basePrice * PRICE_WIDTH;
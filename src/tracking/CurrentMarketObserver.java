@@ -15,4 +15,18 @@ public interface CurrentMarketObserver {
          * sell state (price and volume) of the product.
          */
         void updateCurrentMarket(String symbol, CurrentMarketSide buySide, CurrentMarketSide sellSide);
+
+        /**
+         * Accept a market update as the product's reusable {@link MarketSnapshot} slot. The slot keeps changing
+         * after the call returns, so observers must copy out what they need (ex: with
+         * {@link MarketSnapshot#copyFrom(MarketSnapshot)}) rather than keep a reference to it. The default
+         * builds {@link CurrentMarketSide} objects for {@link #updateCurrentMarket(String, CurrentMarketSide, CurrentMarketSide)};
+         * override it to take updates without allocating.
+         *
+         * @param market the product's current market.
+         */
+        default void updateCurrentMarket(MarketSnapshot market) {
+                CurrentMarketSide[] sides = market.toMarketSides();
+                updateCurrentMarket(market.getSymbol(), sides[0], sides[1]);
+        }
 }
\ No newline at end of file
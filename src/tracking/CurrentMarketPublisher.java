@@ -1,64 +1,265 @@
 package tracking;
 
+import exceptions.InvalidRangeException;
 import exceptions.NullArgumentException;
+import tradable.ProductTable;
+import tradable.SymbolRegistry;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 public final class CurrentMarketPublisher {
 
-    /** Singleton class instance. */
-    private static CurrentMarketPublisher instance;
+    /** Singleton class instance, created eagerly so getInstance() is safe to call from any thread. */
+    private static final CurrentMarketPublisher instance = new CurrentMarketPublisher();
 
     /**
      * Store the observers subscribed to be notified about changes to specific stock symbols.
-     * Used to filter updates by mapping the stock symbol key to a list of {@link CurrentMarketObserver}.
+     * Used to filter updates by mapping the symbol's product id to an array of {@link CurrentMarketObserver}.
+     * Each array is replaced rather than changed when observers (un)subscribe, so matching threads for
+     * different symbols can walk it while publishing without locking or allocating an iterator.
      */
-    private final HashMap<String, ArrayList<CurrentMarketObserver>> filters;
-
-    public static CurrentMarketPublisher getInstance() {
-        // Create a new instance if the singleton instance doesn't already exist:
-         if (instance == null) {
-             instance = new CurrentMarketPublisher();
-         }
-         return instance;
+    private final ProductTable<CurrentMarketObserver[]> filters;
+    /** Market slots for updates published as {@link CurrentMarketSide} objects rather than tracked slots, by product id. */
+    private final ProductTable<MarketSnapshot> sideMarkets;
+
+    // Conflating mode state, see startConflation():
+    /** Every market slot seen while conflating, scanned by the dispatcher for waiting updates. */
+    private final CopyOnWriteArrayList<MarketSnapshot> conflatedMarkets;
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final Object dispatchLock = new Object(); // Not the publisher's own monitor, stopConflation() holds that.
+    private volatile Thread dispatcher;
+    private volatile boolean conflating = false;
+    private volatile long windowNanos;
+    private volatile int batchSize;
+
+    // Publication statistics:
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+    private final LongAdder conflated = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+
+    public static CurrentMarketPublisher getInstance() { return instance; }
+
+    private CurrentMarketPublisher() {
+        filters = new ProductTable<>();
+        sideMarkets = new ProductTable<>();
+        conflatedMarkets = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Switch to conflating mode. Market updates are no longer delivered on the publishing (matching) thread;
+     * instead the latest update for each symbol is held until a dispatcher thread delivers it, so a burst of
+     * updates for a symbol reaches its observers as a single callback and a slow observer can't stall matching.
+     * Updates that leave a symbol's market unchanged are dropped.
+     *
+     * @param windowMillis the longest an update waits before the dispatcher delivers it.
+     * @param batchSize the number of symbols with waiting updates that triggers delivery before the window ends.
+     * @throws InvalidRangeException if the window or batch size is not positive.
+     */
+    public synchronized void startConflation(long windowMillis, int batchSize) throws InvalidRangeException {
+        if (windowMillis <= 0) { throw new InvalidRangeException("Invalid windowMillis argument " + windowMillis + ": must be greater than 0"); }
+        if (batchSize <= 0) { throw new InvalidRangeException("Invalid batchSize argument " + batchSize + ": must be greater than 0"); }
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.batchSize = batchSize;
+        if (conflating) { return; } // Already running, just use the new window and batch size.
+
+        conflating = true;
+        dispatcher = new Thread(this::runDispatcher, "market-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Leave conflating mode, delivering any waiting updates before the dispatcher stops. Later updates are
+     * delivered on the publishing thread again.
+     *
+     * @throws InterruptedException if interrupted while waiting for the dispatcher to finish.
+     */
+    public synchronized void stopConflation() throws InterruptedException {
+        if (!conflating) { return; }
+        conflating = false;
+        LockSupport.unpark(dispatcher);
+        dispatcher.join();
+        dispatcher = null;
+        dispatchPending(); // Catch any update that arrived as the dispatcher was finishing.
+        for (MarketSnapshot market : conflatedMarkets) {
+            market.registered.set(false);
+            market.acceptedChanges = -1;
+            market.delivered = null;
+        }
+        conflatedMarkets.clear();
     }
 
-    private CurrentMarketPublisher() { filters = new HashMap<>(); }
+    /**
+     * @return true if the publisher is in conflating mode.
+     */
+    public boolean isConflating() { return conflating; }
 
     public void subscribeCurrentMarket(String symbol, CurrentMarketObserver cmo) throws NullArgumentException {
         if (symbol == null) { throw new NullArgumentException("Invalid stock symbol argument: null"); }
         if (cmo == null) { throw new NullArgumentException("Invalid CurrentMarketObserver argument: null"); }
 
-        if (!filters.containsKey(symbol)) { // Add the stock symbol if it's not already in the filter.
-            filters.put(symbol, new ArrayList<>());
-        }
-        filters.get(symbol).add(cmo); // Add the observer to the stock symbol filter.
+        // Add the stock symbol if it's not already in the filter, then add the observer to it.
+        filters.compute(SymbolRegistry.getInstance().register(symbol), observers -> {
+            if (observers == null) { return new CurrentMarketObserver[]{cmo}; }
+            CurrentMarketObserver[] added = Arrays.copyOf(observers, observers.length + 1);
+            added[observers.length] = cmo;
+            return added;
+        });
     }
 
     public void unSubscribeCurrentMarket(String symbol, CurrentMarketObserver cmo) throws NullArgumentException {
         if (symbol == null) { throw new NullArgumentException("Invalid stock symbol argument: null"); }
         if (cmo == null) { throw new NullArgumentException("Invalid CurrentMarketObserver argument: null"); }
 
-        if (filters.containsKey(symbol)) { // Check that the symbol exists in the filter.
-            filters.get(symbol).remove(cmo); // Remove the observer to the stock symbol filter.
-
-            if (filters.get(symbol).size() == 0) { // Remove symbol from filters when there are no observers.
-                filters.remove(symbol);
+        // Remove the observer from the stock symbol filter, and the symbol when there are no observers left.
+        int productId = SymbolRegistry.getInstance().idOf(symbol);
+        if (productId < 0) { return; } // Never subscribed.
+        filters.compute(productId, observers -> {
+            if (observers == null) { return null; }
+            for (int i = 0; i < observers.length; i++) {
+                if (observers[i].equals(cmo)) { // Remove the first match, like List.remove(Object).
+                    if (observers.length == 1) { return null; }
+                    CurrentMarketObserver[] removed = new CurrentMarketObserver[observers.length - 1];
+                    System.arraycopy(observers, 0, removed, 0, i);
+                    System.arraycopy(observers, i + 1, removed, i, removed.length - i);
+                    return removed;
+                }
             }
-        }
+            return observers;
+        });
     }
 
     public void acceptCurrentMarket(String symbol, CurrentMarketSide buySide, CurrentMarketSide sellSide) throws NullArgumentException {
-        ArrayList<CurrentMarketObserver> symbolObservers = filters.get(symbol);
-        if (symbolObservers != null) { // Ensure the symbol has a valid filter entry.
+        int productId = SymbolRegistry.getInstance().idOf(symbol);
+        if (filters.get(productId) != null) { // Ensure the symbol has a valid filter entry.
             if (buySide == null) { throw new NullArgumentException("Invalid buySide argument: null"); }
             if (sellSide == null) { throw new NullArgumentException("Invalid sellSide argument: null"); }
 
+            MarketSnapshot market = sideMarkets.get(productId);
+            if (market == null) {
+                MarketSnapshot created = newSnapshot(symbol);
+                market = sideMarkets.putIfAbsent(productId, created);
+                if (market == null) { market = created; }
+            }
+            long buyPrice = buySide.getPrice().getValue();
+            long sellPrice = sellSide.getPrice().getValue();
+            long width = (buyPrice == 0 || sellPrice == 0) ? 0 : sellPrice - buyPrice; // Zero width if either side has no price.
+            market.update(buyPrice, buySide.getVolume(), sellPrice, sellSide.getVolume(), width);
+            acceptCurrentMarket(market);
+        }
+    }
+
+    /**
+     * Publish the market held in a product's slot to the observers of its symbol. Nothing is allocated, as
+     * observers are handed the slot itself and read the values they need from it.
+     *
+     * @param market the product's market slot.
+     * @throws NullArgumentException if the market is null.
+     */
+    public void acceptCurrentMarket(MarketSnapshot market) throws NullArgumentException {
+        if (market == null) { throw new NullArgumentException("Invalid market argument: null"); }
+        CurrentMarketObserver[] symbolObservers = filters.get(market.getProductId());
+        if (symbolObservers != null) { // Ensure the symbol has a valid filter entry.
+            accepted.increment();
+
+            if (conflating) { // Hand the update to the dispatcher instead of notifying here.
+                conflate(market);
+                return;
+            }
+
             // Notify the observers of the current market values:
             for (CurrentMarketObserver observer : symbolObservers) {
-                observer.updateCurrentMarket(symbol, buySide, sellSide);
+                observer.updateCurrentMarket(market);
             }
+            delivered.add(symbolObservers.length);
         }
     }
+
+    private void conflate(MarketSnapshot market) {
+        long changes = market.getChangeCount();
+        if (changes == market.acceptedChanges) { // Top of book didn't change, nothing to tell the observers.
+            suppressed.increment();
+            return;
+        }
+        market.acceptedChanges = changes;
+
+        if (market.registered.compareAndSet(false, true)) { conflatedMarkets.add(market); } // First time only.
+        if (market.pending.getAndSet(true)) {
+            conflated.increment(); // Replaced an update the observers hadn't seen yet.
+        } else if (pendingCount.incrementAndGet() >= batchSize) {
+            LockSupport.unpark(dispatcher); // Enough symbols are waiting, don't wait for the window to end.
+        }
+    }
+
+    private static MarketSnapshot newSnapshot(String symbol) {
+        try {
+            return new MarketSnapshot(symbol);
+        } catch (NullArgumentException e) {
+            throw new IllegalStateException(e); // Only called with the symbol of an existing slot or filter.
+        }
+    }
+
+    private void runDispatcher() {
+        while (conflating) {
+            LockSupport.parkNanos(windowNanos);
+            dispatchPending();
+        }
+    }
+
+    /**
+     * Deliver the latest market of every symbol with a waiting update, skipping any that ended up back at
+     * the market the observers last saw. Only ever runs on one thread at a time.
+     */
+    private void dispatchPending() {
+        synchronized (dispatchLock) {
+            for (MarketSnapshot market : conflatedMarkets) {
+                if (market.pending.compareAndSet(true, false)) {
+                    pendingCount.decrementAndGet();
+                    dispatch(market);
+                }
+            }
+        }
+    }
+
+    private void dispatch(MarketSnapshot market) {
+        boolean first = market.delivered == null;
+        if (first) { market.delivered = newSnapshot(market.getSymbol()); }
+        // Deliver a private copy, so the observers see exactly the market compared here.
+        if (!market.delivered.copyFrom(market) && !first) {
+            suppressed.increment(); // Back at the market the observers last saw.
+            return;
+        }
+        CurrentMarketObserver[] symbolObservers = filters.get(market.getProductId());
+        if (symbolObservers == null) { return; } // Every observer unsubscribed while it was waiting.
+        for (CurrentMarketObserver observer : symbolObservers) {
+            observer.updateCurrentMarket(market.delivered);
+        }
+        delivered.add(symbolObservers.length);
+    }
+
+    /**
+     * @return the number of market updates accepted for symbols with observers.
+     */
+    public long getAcceptedCount() { return accepted.sum(); }
+
+    /**
+     * @return the number of accepted updates dropped in conflating mode because the market was unchanged.
+     */
+    public long getSuppressedCount() { return suppressed.sum(); }
+
+    /**
+     * @return the number of waiting updates replaced by a newer one for the same symbol in conflating mode.
+     */
+    public long getConflatedCount() { return conflated.sum(); }
+
+    /**
+     * @return the number of observer callbacks made.
+     */
+    public long getDeliveredCount() { return delivered.sum(); }
 }
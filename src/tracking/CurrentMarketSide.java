@@ -35,6 +35,21 @@ public class CurrentMarketSide {
         return volume;
     }
 
+    /**
+     * @param other an object to test for equality.
+     * @return true if the other object is a CurrentMarketSide with the same price and volume.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) { return true; }
+        if (other == null || getClass() != other.getClass()) { return false; }
+        CurrentMarketSide side = (CurrentMarketSide) other;
+        return volume == side.volume && price.equals(side.price);
+    }
+
+    @Override
+    public int hashCode() { return (31 * price.hashCode()) + volume; }
+
     @Override
     public String toString() {
         return price + "x" + volume;
@@ -1,40 +1,90 @@
 package tracking;
 
 import exceptions.NullArgumentException;
+import logging.EventLogManager;
 import price.Price;
-import price.PriceFactory;
+import tradable.ProductTable;
+import tradable.SymbolRegistry;
 
 public final class CurrentMarketTracker {
 
-    /** Singleton class instance. */
-    private static CurrentMarketTracker instance;
+    /** Singleton class instance, created eagerly so getInstance() is safe to call from any thread. */
+    private static final CurrentMarketTracker instance = new CurrentMarketTracker();
 
-    public static CurrentMarketTracker getInstance() {
-        // Create a new instance if the singleton instance doesn't already exist:
-        if (instance == null) {
-            instance = new CurrentMarketTracker();
-        }
-        return instance;
-    }
+    /** The reusable market slot of each product, by product id, allocated on the product's first update. */
+    private final ProductTable<MarketSnapshot> snapshots;
+
+    public static CurrentMarketTracker getInstance() { return instance; }
 
-    private CurrentMarketTracker() {}
+    private CurrentMarketTracker() { snapshots = new ProductTable<>(); }
 
     public void updateMarket(String symbol, Price buyPrice, int buyVolume, Price sellPrice, int sellVolume) throws NullArgumentException {
-        if (symbol == null) { throw new NullArgumentException("Invalid product symbol argument: null"); }
+        MarketSnapshot market = trackMarket(symbol, buyPrice, buyVolume, sellPrice, sellVolume);
+        // Send market update to the publisher to notify the observers.
+        CurrentMarketPublisher.getInstance().acceptCurrentMarket(market);
+    }
+
+    /**
+     * Same as {@link #updateMarket(String, Price, int, Price, int)}, for a product already resolved to its id.
+     */
+    public void updateMarket(int productId, Price buyPrice, int buyVolume, Price sellPrice, int sellVolume) throws NullArgumentException {
+        MarketSnapshot market = trackMarket(getSnapshot(productId), buyPrice, buyVolume, sellPrice, sellVolume);
+        CurrentMarketPublisher.getInstance().acceptCurrentMarket(market);
+    }
+
+    /**
+     * Record and log the current market for a product without publishing it to the observers, for callers
+     * that publish separately (ex: a later pipeline stage). The product's slot is overwritten in place, so
+     * no objects are allocated once the slot exists.
+     *
+     * @return the product's market slot, holding the new values.
+     */
+    public MarketSnapshot trackMarket(String symbol, Price buyPrice, int buyVolume, Price sellPrice, int sellVolume) throws NullArgumentException {
+        return trackMarket(getSnapshot(symbol), buyPrice, buyVolume, sellPrice, sellVolume);
+    }
 
+    /**
+     * Same as {@link #trackMarket(String, Price, int, Price, int)}, for a product already resolved to its id.
+     */
+    public MarketSnapshot trackMarket(int productId, Price buyPrice, int buyVolume, Price sellPrice, int sellVolume) throws NullArgumentException {
+        return trackMarket(getSnapshot(productId), buyPrice, buyVolume, sellPrice, sellVolume);
+    }
+
+    private MarketSnapshot trackMarket(MarketSnapshot market, Price buyPrice, int buyVolume, Price sellPrice, int sellVolume) {
+        // Prices in cents, zero if the side has no price:
+        long buyCents = (buyPrice == null) ? 0 : buyPrice.getValue();
+        long sellCents = (sellPrice == null) ? 0 : sellPrice.getValue();
         // Calculate the market width between the buy and sell prices. Zero width if either side has no price.
-        Price marketWidth = (buyPrice == null || sellPrice == null) ?
-                PriceFactory.makePrice(0) : sellPrice.subtract(buyPrice);
-        // Store market state values:
-        CurrentMarketSide buySide = new CurrentMarketSide((buyPrice == null) ? PriceFactory.makePrice(0) : buyPrice, buyVolume);
-        CurrentMarketSide sellSide = new CurrentMarketSide((sellPrice == null) ? PriceFactory.makePrice(0) : sellPrice, sellVolume);
+        long width = (buyPrice == null || sellPrice == null) ? 0 : sellCents - buyCents;
 
-        // Log current market message in the console:
-        System.out.println("*********** Current Market ***********");
-        System.out.println("* " + symbol + " " + buySide + " - " + sellSide + " [" + marketWidth + "]");
-        System.out.println("**************************************");
+        market.update(buyCents, buyVolume, sellCents, sellVolume, width);
 
-        // Send market update to the publisher to notify the observers.
-        CurrentMarketPublisher.getInstance().acceptCurrentMarket(symbol, buySide, sellSide);
+        // Log the current market message, handed off to the event log's writer:
+        EventLogManager.getInstance().getLog().market(market.getSymbol(), buyCents, buyVolume, sellCents, sellVolume, width);
+        return market;
+    }
+
+    /**
+     * @param symbol a product symbol.
+     * @return the product's market slot, which always holds its latest tracked market.
+     */
+    public MarketSnapshot getSnapshot(String symbol) throws NullArgumentException {
+        if (symbol == null) { throw new NullArgumentException("Invalid product symbol argument: null"); }
+        return getSnapshot(SymbolRegistry.getInstance().register(symbol));
+    }
+
+    /**
+     * @param productId a registered product id, see {@link SymbolRegistry}.
+     * @return the product's market slot, which always holds its latest tracked market.
+     * @throws NullArgumentException if no product has the id.
+     */
+    public MarketSnapshot getSnapshot(int productId) throws NullArgumentException {
+        MarketSnapshot market = snapshots.get(productId);
+        if (market == null) { // First update for the product, racing threads all end up with the same slot.
+            MarketSnapshot created = new MarketSnapshot(SymbolRegistry.getInstance().symbolOf(productId));
+            market = snapshots.putIfAbsent(productId, created);
+            if (market == null) { market = created; }
+        }
+        return market;
     }
 }
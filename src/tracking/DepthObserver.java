@@ -0,0 +1,17 @@
+package tracking;
+
+/**
+ * An interface for subscribing to a product's market by price (Level 2 depth) from the {@link DepthPublisher}.
+ */
+public interface DepthObserver {
+
+        /**
+         * Accept the changes to the best price levels of a product since the last update. Applying each
+         * change in order to the levels already seen leaves exactly the current levels, down to the depth
+         * subscribed to. The update is reused for the next one, so observers must copy out what they need
+         * rather than keep a reference to it.
+         *
+         * @param update the level changes, see {@link DepthUpdate}.
+         */
+        void updateDepth(DepthUpdate update);
+}
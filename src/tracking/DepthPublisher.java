@@ -0,0 +1,217 @@
+package tracking;
+
+import book.BookSide;
+import book.ProductBook;
+import exceptions.InvalidRangeException;
+import exceptions.NullArgumentException;
+import tradable.ProductTable;
+import tradable.SymbolRegistry;
+
+import java.util.Arrays;
+
+/**
+ * Publishes each product's market by price (Level 2 depth): the aggregated volume and order count of the best
+ * price levels on each side, as insert, update and delete changes rather than full copies of the levels. Each
+ * {@link DepthObserver} chooses how many levels per side it follows.
+ * <br><br>
+ * A {@link ProductBook} publishes after each request it applies, on its own (matching) thread. The levels are
+ * read from the aggregates the book keeps in step with every change, down to the deepest level any observer
+ * follows, and compared with the levels each observer saw last; nothing is read when the book has no depth
+ * observers or hasn't changed. A new observer is sent every level as an insert with the book's next change.
+ */
+public final class DepthPublisher {
+
+    /** Singleton class instance, created eagerly so getInstance() is safe to call from any thread. */
+    private static final DepthPublisher instance = new DepthPublisher();
+
+    /** The most levels per side an observer can follow. */
+    public static final int MAX_DEPTH = 100;
+
+    /** Depth subscriptions and working state by product id, created on the product's first subscription. */
+    private final ProductTable<ProductDepth> products;
+
+    public static DepthPublisher getInstance() { return instance; }
+
+    private DepthPublisher() { products = new ProductTable<>(); }
+
+    /**
+     * Subscribe to a product's depth.
+     *
+     * @param symbol the product symbol.
+     * @param depth the number of levels per side to follow, from 1 to {@link #MAX_DEPTH}.
+     * @param observer the observer to send changes to.
+     * @throws NullArgumentException if the symbol or observer is null.
+     * @throws InvalidRangeException if the depth is out of range.
+     */
+    public void subscribeDepth(String symbol, int depth, DepthObserver observer) throws NullArgumentException, InvalidRangeException {
+        if (symbol == null) { throw new NullArgumentException("Invalid stock symbol argument: null"); }
+        if (observer == null) { throw new NullArgumentException("Invalid DepthObserver argument: null"); }
+        if (depth < 1 || depth > MAX_DEPTH) { throw new InvalidRangeException("Invalid depth argument " + depth + ": must be 1 to " + MAX_DEPTH); }
+
+        int productId = SymbolRegistry.getInstance().register(symbol);
+        ProductDepth product = products.get(productId);
+        if (product == null) {
+            ProductDepth created = new ProductDepth(SymbolRegistry.getInstance().symbolOf(productId));
+            product = products.putIfAbsent(productId, created);
+            if (product == null) { product = created; }
+        }
+        product.add(new Feed(observer, depth));
+    }
+
+    /**
+     * Stop sending a product's depth to an observer.
+     *
+     * @throws NullArgumentException if the symbol or observer is null.
+     */
+    public void unSubscribeDepth(String symbol, DepthObserver observer) throws NullArgumentException {
+        if (symbol == null) { throw new NullArgumentException("Invalid stock symbol argument: null"); }
+        if (observer == null) { throw new NullArgumentException("Invalid DepthObserver argument: null"); }
+        ProductDepth product = products.get(SymbolRegistry.getInstance().idOf(symbol));
+        if (product != null) { product.remove(observer); }
+    }
+
+    /**
+     * Send the changes to a book's levels since its last publication to the product's depth observers. Called
+     * by the book's writer after each change; does nothing if the product has no depth observers.
+     *
+     * @param book the product book.
+     * @throws NullArgumentException if the book is null.
+     */
+    public void publish(ProductBook book) throws NullArgumentException {
+        if (book == null) { throw new NullArgumentException("Invalid ProductBook argument: null"); }
+        ProductDepth product = products.get(book.getProductId());
+        if (product != null && product.feeds.length > 0) { product.publish(book); }
+    }
+
+    /** One product's depth observers, and the levels last read from its book. */
+    private static final class ProductDepth {
+        private static final BookSide[] SIDES = BookSide.values();
+
+        private final String symbol;
+        /** Replaced rather than changed, so the fast path in publish() can check it without locking. */
+        volatile Feed[] feeds = new Feed[0];
+        private final Levels[] current = {new Levels(0), new Levels(0)}; // By side.
+        private final DepthUpdate update = new DepthUpdate();
+        /** The book's change count when last read, or -1 to read it again (ex: for a new observer). */
+        private long readChanges = -1;
+
+        ProductDepth(String symbol) { this.symbol = symbol; }
+
+        synchronized void add(Feed feed) {
+            feeds = Arrays.copyOf(feeds, feeds.length + 1);
+            feeds[feeds.length - 1] = feed;
+            if (feed.depth > current[0].prices.length) {
+                current[0] = new Levels(feed.depth);
+                current[1] = new Levels(feed.depth);
+            }
+            readChanges = -1;
+        }
+
+        synchronized void remove(DepthObserver observer) {
+            for (int i = 0; i < feeds.length; i++) {
+                if (feeds[i].observer.equals(observer)) { // Remove the first match, like List.remove(Object).
+                    Feed[] removed = new Feed[feeds.length - 1];
+                    System.arraycopy(feeds, 0, removed, 0, i);
+                    System.arraycopy(feeds, i + 1, removed, i, removed.length - i);
+                    feeds = removed;
+                    return;
+                }
+            }
+        }
+
+        synchronized void publish(ProductBook book) {
+            long changes = book.getChangeCount();
+            if (changes == readChanges) { return; } // The levels are as every observer last saw them.
+            readChanges = changes;
+            for (BookSide side : SIDES) {
+                Levels levels = current[side.ordinal()];
+                levels.size = book.getDepth(side, levels.prices.length, levels.prices, levels.volumes, levels.orderCounts);
+            }
+            for (Feed feed : feeds) {
+                update.start(symbol, feed.depth);
+                for (BookSide side : SIDES) { feed.diff(side, current[side.ordinal()], update); }
+                if (update.getCount() > 0) { feed.observer.updateDepth(update); }
+            }
+        }
+    }
+
+    /** One observer's subscription, and the levels it has been sent. */
+    private static final class Feed {
+        final DepthObserver observer;
+        final int depth;
+        private final Levels[] seen;
+        private final int[] deleted;
+
+        Feed(DepthObserver observer, int depth) {
+            this.observer = observer;
+            this.depth = depth;
+            this.seen = new Levels[]{new Levels(depth), new Levels(depth)};
+            this.deleted = new int[depth];
+        }
+
+        /**
+         * Add the changes from the levels last sent to the current ones, cut to the feed's depth, and remember
+         * the current ones as sent. Both lists are best price first, so they're compared by merging.
+         */
+        void diff(BookSide side, Levels current, DepthUpdate update) {
+            Levels old = seen[side.ordinal()];
+            int size = Math.min(current.size, depth);
+            int deletes = 0;
+            int i = 0, j = 0;
+            while (i < old.size) { // Levels no longer in the depth.
+                if (j < size && old.prices[i] == current.prices[j]) {
+                    i++;
+                    j++;
+                } else if (j < size && !isBetter(side, old.prices[i], current.prices[j])) {
+                    j++; // A new level, handled below.
+                } else {
+                    deleted[deletes++] = i++;
+                }
+            }
+            for (int d = deletes - 1; d >= 0; d--) { // Deepest first, so the numbers of the rest still hold.
+                int level = deleted[d];
+                update.add(DepthUpdate.Action.DELETE, side, level, old.prices[level], 0, 0);
+            }
+
+            i = 0;
+            for (j = 0; j < size; j++) { // New and changed levels, shallowest first.
+                while (i < old.size && isBetter(side, old.prices[i], current.prices[j])) { i++; } // Deleted above.
+                if (i < old.size && old.prices[i] == current.prices[j]) {
+                    if (old.volumes[i] != current.volumes[j] || old.orderCounts[i] != current.orderCounts[j]) {
+                        update.add(DepthUpdate.Action.UPDATE, side, j, current.prices[j], current.volumes[j], current.orderCounts[j]);
+                    }
+                    i++;
+                } else {
+                    update.add(DepthUpdate.Action.INSERT, side, j, current.prices[j], current.volumes[j], current.orderCounts[j]);
+                }
+            }
+            old.copyFrom(current, size);
+        }
+
+        /** @return true if price a ranks ahead of price b on the side (higher for BUY, lower for SELL). */
+        private static boolean isBetter(BookSide side, long a, long b) {
+            return (side == BookSide.BUY) ? a > b : a < b;
+        }
+    }
+
+    /** The aggregates of a side's best levels, best first. */
+    private static final class Levels {
+        final long[] prices;
+        final int[] volumes;
+        final int[] orderCounts;
+        int size;
+
+        Levels(int capacity) {
+            prices = new long[capacity];
+            volumes = new int[capacity];
+            orderCounts = new int[capacity];
+        }
+
+        void copyFrom(Levels other, int size) {
+            System.arraycopy(other.prices, 0, prices, 0, size);
+            System.arraycopy(other.volumes, 0, volumes, 0, size);
+            System.arraycopy(other.orderCounts, 0, orderCounts, 0, size);
+            this.size = size;
+        }
+    }
+}
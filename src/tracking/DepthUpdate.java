@@ -0,0 +1,115 @@
+package tracking;
+
+import book.BookSide;
+import price.Price;
+
+import java.util.Arrays;
+
+/**
+ * A reusable batch of changes to one product's market by price, as delivered to a {@link DepthObserver}. Each
+ * change inserts, updates or deletes one price level on one side, at a level number counted from the best
+ * price (0) down. Within each side the deletes come first, deepest level first, followed by the inserts and
+ * updates, shallowest first, so the changes can be applied in order to a list of levels by position: a delete
+ * removes the level at its number, moving the ones below it up, and an insert adds a level at its number,
+ * moving the ones below it down. Levels pushed past the subscribed depth by an insert are dropped without a
+ * delete of their own, and levels moving up into the depth are sent as inserts.
+ */
+public final class DepthUpdate {
+
+    /** The kind of change made to a level. */
+    public enum Action {
+        INSERT, UPDATE, DELETE
+    }
+
+    private static final Action[] ACTIONS = Action.values();
+    private static final BookSide[] SIDES = BookSide.values();
+
+    private String symbol;
+    private int depth;
+    private int count;
+    private byte[] actions = new byte[16];
+    private byte[] sides = new byte[16];
+    private int[] levels = new int[16];
+    private long[] prices = new long[16];
+    private int[] volumes = new int[16];
+    private int[] orderCounts = new int[16];
+
+    DepthUpdate() {}
+
+    void start(String symbol, int depth) {
+        this.symbol = symbol;
+        this.depth = depth;
+        this.count = 0;
+    }
+
+    void add(Action action, BookSide side, int level, long price, int volume, int orderCount) {
+        if (count == actions.length) {
+            int capacity = count * 2;
+            actions = Arrays.copyOf(actions, capacity);
+            sides = Arrays.copyOf(sides, capacity);
+            levels = Arrays.copyOf(levels, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            volumes = Arrays.copyOf(volumes, capacity);
+            orderCounts = Arrays.copyOf(orderCounts, capacity);
+        }
+        actions[count] = (byte) action.ordinal();
+        sides[count] = (byte) side.ordinal();
+        levels[count] = level;
+        prices[count] = price;
+        volumes[count] = volume;
+        orderCounts[count] = orderCount;
+        count++;
+    }
+
+    public String getSymbol() { return symbol; }
+
+    /**
+     * @return the number of levels per side the observer subscribed to.
+     */
+    public int getDepth() { return depth; }
+
+    /**
+     * @return the number of changes in the update.
+     */
+    public int getCount() { return count; }
+
+    public Action getAction(int i) { return ACTIONS[actions[check(i)]]; }
+
+    public BookSide getSide(int i) { return SIDES[sides[check(i)]]; }
+
+    /**
+     * @return the changed level's number, 0 for the best price.
+     */
+    public int getLevel(int i) { return levels[check(i)]; }
+
+    /**
+     * @return the level's price in cents.
+     */
+    public long getPrice(int i) { return prices[check(i)]; }
+
+    /**
+     * @return the level's total remaining volume, 0 for a delete.
+     */
+    public int getVolume(int i) { return volumes[check(i)]; }
+
+    /**
+     * @return the number of orders at the level, 0 for a delete.
+     */
+    public int getOrderCount(int i) { return orderCounts[check(i)]; }
+
+    private int check(int i) {
+        if (i < 0 || i >= count) { throw new IndexOutOfBoundsException("Change " + i + " of " + count); }
+        return i;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(symbol).append(" depth ").append(depth).append(':');
+        for (int i = 0; i < count; i++) {
+            out.append("\n\t").append(getAction(i)).append(' ').append(getSide(i)).append(" #").append(levels[i])
+                    .append(' ').append(Price.toString(prices[i]));
+            if (getAction(i) != Action.DELETE) { out.append(" x").append(volumes[i]).append(" (").append(orderCounts[i]).append(" orders)"); }
+        }
+        return out.toString();
+    }
+}
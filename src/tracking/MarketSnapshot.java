@@ -0,0 +1,190 @@
+package tracking;
+
+import exceptions.NullArgumentException;
+import price.Price;
+import price.PriceFactory;
+import tradable.SymbolRegistry;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A reusable, mutable top-of-book slot for one product: the buy and sell price (in cents) and volume, and
+ * the market width. One slot is allocated per symbol and then overwritten in place on every update, so
+ * publishing a market allocates nothing.
+ * <br><br>
+ * Updates are versioned like a seqlock: the version is odd while an update is being written and even once
+ * it is complete. Readers never block; they take {@link #readVersion()}, read the fields they need, and
+ * retry if {@link #validate(long)} reports that an update overlapped the read.
+ */
+public final class MarketSnapshot {
+
+    private final String symbol;
+    /** The symbol's id, see {@link SymbolRegistry}. */
+    private final int productId;
+    /** Odd while an update is in progress, bumped twice per update. */
+    private volatile long version;
+    /** The number of updates that actually changed the market values. */
+    private long changes;
+
+    private long buyPrice;
+    private int buyVolume;
+    private long sellPrice;
+    private int sellVolume;
+    private long width;
+
+    // Conflation bookkeeping, only used by the CurrentMarketPublisher:
+    /** True while the slot is waiting for the publisher's dispatcher. */
+    final AtomicBoolean pending = new AtomicBoolean();
+    /** True once the slot has been handed to the dispatcher for scanning. */
+    final AtomicBoolean registered = new AtomicBoolean();
+    /** The change count last accepted for publication. */
+    long acceptedChanges = -1;
+    /** A private copy of the market last delivered by the dispatcher, created on first delivery. */
+    MarketSnapshot delivered;
+
+    public MarketSnapshot(String symbol) throws NullArgumentException {
+        if (symbol == null) { throw new NullArgumentException("Invalid product symbol argument: null"); }
+        this.symbol = symbol;
+        this.productId = SymbolRegistry.getInstance().register(symbol);
+    }
+
+    public String getSymbol() { return symbol; }
+
+    public int getProductId() { return productId; }
+
+    /**
+     * Overwrite the slot with a new market. Writers are serialized, so a slot may be shared by several
+     * writing threads, though normally only the product's matching thread writes it.
+     *
+     * @param buyPrice the top buy price in cents, 0 if there is none.
+     * @param buyVolume the volume at the top buy price.
+     * @param sellPrice the top sell price in cents, 0 if there is none.
+     * @param sellVolume the volume at the top sell price.
+     * @param width the market width in cents, 0 if either side has no price.
+     * @return true if any of the values changed.
+     */
+    public synchronized boolean update(long buyPrice, int buyVolume, long sellPrice, int sellVolume, long width) {
+        boolean changed = buyPrice != this.buyPrice || buyVolume != this.buyVolume
+                || sellPrice != this.sellPrice || sellVolume != this.sellVolume || width != this.width;
+        long v = version;
+        version = v + 1; // Odd, readers retry until the update is complete.
+        VarHandle.storeStoreFence(); // Keep the field writes after the odd version.
+        this.buyPrice = buyPrice;
+        this.buyVolume = buyVolume;
+        this.sellPrice = sellPrice;
+        this.sellVolume = sellVolume;
+        this.width = width;
+        if (changed) { changes++; }
+        version = v + 2; // Volatile write, publishes the fields above.
+        return changed;
+    }
+
+    /**
+     * Overwrite the slot with a consistent copy of another slot's market.
+     *
+     * @param other the slot to copy.
+     * @return true if any of the values changed.
+     */
+    public boolean copyFrom(MarketSnapshot other) {
+        long bp, sp, w;
+        int bv, sv;
+        long v;
+        do {
+            v = other.readVersion();
+            bp = other.buyPrice;
+            bv = other.buyVolume;
+            sp = other.sellPrice;
+            sv = other.sellVolume;
+            w = other.width;
+        } while (!other.validate(v));
+        return update(bp, bv, sp, sv, w);
+    }
+
+    /**
+     * Start a read, waiting out any update in progress.
+     *
+     * @return the version to pass to {@link #validate(long)} once the fields have been read.
+     */
+    public long readVersion() {
+        long v;
+        while (((v = version) & 1) != 0) { Thread.onSpinWait(); }
+        return v;
+    }
+
+    /**
+     * @param readVersion the version returned by {@link #readVersion()} before reading.
+     * @return true if no update overlapped the read, otherwise the values read must be discarded.
+     */
+    public boolean validate(long readVersion) {
+        VarHandle.loadLoadFence(); // Keep the field reads before the version re-check.
+        return version == readVersion;
+    }
+
+    /**
+     * @return the current version, which only ever increases and changes on every update.
+     */
+    public long getVersion() { return version; }
+
+    // Plain reads, only consistent with each other between readVersion() and a successful validate().
+
+    public long getBuyPrice() { return buyPrice; }
+
+    public int getBuyVolume() { return buyVolume; }
+
+    public long getSellPrice() { return sellPrice; }
+
+    public int getSellVolume() { return sellVolume; }
+
+    public long getWidth() { return width; }
+
+    long getChangeCount() { return changes; }
+
+    /**
+     * Build {@link CurrentMarketSide} objects from a consistent read, for observers still using them.
+     *
+     * @return the market sides, where index ([0] = Buy market values, [1] = Sell market values).
+     */
+    public CurrentMarketSide[] toMarketSides() {
+        long bp, sp, v;
+        int bv, sv;
+        do {
+            v = readVersion();
+            bp = buyPrice;
+            bv = buyVolume;
+            sp = sellPrice;
+            sv = sellVolume;
+        } while (!validate(v));
+        try {
+            return new CurrentMarketSide[]{new CurrentMarketSide(PriceFactory.makePrice(bp), bv),
+                    new CurrentMarketSide(PriceFactory.makePrice(sp), sv)};
+        } catch (NullArgumentException e) {
+            throw new IllegalStateException(e); // makePrice never returns null.
+        }
+    }
+
+    /**
+     * Append a consistent read of the market as "buy - sell" (ex: "$10.00x50 - $10.05x20").
+     *
+     * @param out the builder to append to.
+     * @return the builder.
+     */
+    public StringBuilder appendTo(StringBuilder out) {
+        long bp, sp, v;
+        int bv, sv;
+        do {
+            v = readVersion();
+            bp = buyPrice;
+            bv = buyVolume;
+            sp = sellPrice;
+            sv = sellVolume;
+        } while (!validate(v));
+        return out.append(Price.toString(bp)).append('x').append(bv).append(" - ")
+                .append(Price.toString(sp)).append('x').append(sv);
+    }
+
+    @Override
+    public String toString() {
+        return appendTo(new StringBuilder(symbol).append(' ')).toString();
+    }
+}
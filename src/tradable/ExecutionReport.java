@@ -0,0 +1,88 @@
+package tradable;
+
+import book.BookSide;
+import price.Price;
+import price.PriceFactory;
+
+/**
+ * A compact report of one change to a resting order made by the matching engine: a fill, a cancel, or an
+ * amend of its price or volume. Carries the change itself (the volume, and the price for fills) along with
+ * the order's price and volumes after it, so a holder of an older copy of the order can bring it up to date
+ * without a full {@link OrderDTO} snapshot, and applying the same report twice or out of order is harmless.
+ */
+public class ExecutionReport {
+
+    /** The kind of change reported. */
+    public enum Type {
+        FILL, CANCEL, AMEND
+    }
+
+    /** Increases by one with every report from the same product book, in the order they happened. */
+    public final long sequence;
+    public final Type type;
+    public final String user;
+    public final String product;
+    /** The product's id, see {@link SymbolRegistry}. */
+    public final int productId;
+    /** The order id, see {@link OrderIds}. */
+    public final long orderId;
+    public final BookSide side;
+    /** The volume filled or cancelled by this change, 0 for an amend that didn't take any volume away. */
+    public final int volume;
+    /** The price in cents the volume was filled at, or the order's price for a cancel; either way the order's price. */
+    public final long price;
+
+    // The order's volumes after the change:
+    public final int originalVolume;
+    public final int remainingVolume;
+    public final int filledVolume;
+    public final int cancelledVolume;
+
+    /**
+     * Report a change to an order, and mark the order as including it, see {@link OrderDTO#sequence}.
+     */
+    public ExecutionReport(long sequence, Type type, Order order, int volume, long price) {
+        this.sequence = sequence;
+        order.setReportSequence(sequence);
+        this.type = type;
+        this.user = order.getUser();
+        this.product = order.getProduct();
+        this.productId = order.getProductId();
+        this.orderId = order.getOrderId();
+        this.side = order.getSide();
+        this.volume = volume;
+        this.price = price;
+        this.originalVolume = order.getOriginalVolume();
+        this.remainingVolume = order.getRemainingVolume();
+        this.filledVolume = order.getFilledVolume();
+        this.cancelledVolume = order.getCancelledVolume();
+    }
+
+    /**
+     * Bring a copy of the reported order up to date, unless it already reflects this change or a later one.
+     *
+     * @param order a copy of the same order.
+     * @return true if the copy was updated.
+     */
+    public boolean applyTo(OrderDTO order) {
+        // Reports from a book are numbered in the order they happened, so the copy with the later one is newer.
+        if (order.sequence >= sequence) { return false; }
+        order.sequence = sequence;
+        order.originalVolume = originalVolume; // Changed if the order was amended since the copy was made.
+        order.remainingVolume = remainingVolume;
+        order.filledVolume = filledVolume;
+        order.cancelledVolume = cancelledVolume;
+        if (order.price == null || order.price.getValue() != price) {
+            order.price = PriceFactory.makePrice(price);
+            order.id = OrderIds.format(user, product, price, orderId);
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + type + " " + user + " " + side + " " + product + " " + volume + " at "
+                + Price.toString(price) + ", Rem Vol: " + remainingVolume + ", Fill Vol: " + filledVolume
+                + ", CXL Vol: " + cancelledVolume + ", ID: " + OrderIds.format(user, product, price, orderId);
+    }
+}
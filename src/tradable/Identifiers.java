@@ -0,0 +1,103 @@
+package tradable;
+
+import exceptions.InvalidArgumentException;
+import exceptions.NullArgumentException;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Validates user ids and product symbols, and returns one shared upper case instance for each. Characters are
+ * checked against precomputed tables instead of a regular expression, and an id that is already upper case
+ * and has been seen before is returned from the intern table without allocating, so validating the user and
+ * product of every new order is cheap. The canonical instances also make later map lookups by id faster,
+ * since their hash codes are already cached.
+ */
+public final class Identifiers {
+
+    /** The most ids kept in the intern table. Past this, new ids are still validated but not shared. */
+    static final int INTERN_LIMIT = 1 << 16;
+
+    private static final boolean[] LETTER = new boolean[128];
+    private static final boolean[] SYMBOL_CHAR = new boolean[128]; // Letters, digits and the period.
+
+    static {
+        for (char c = 'A'; c <= 'Z'; c++) {
+            LETTER[c] = LETTER[c + ('a' - 'A')] = true;
+            SYMBOL_CHAR[c] = SYMBOL_CHAR[c + ('a' - 'A')] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) { SYMBOL_CHAR[c] = true; }
+        SYMBOL_CHAR['.'] = true;
+    }
+
+    private static final ConcurrentHashMap<String, String> interned = new ConcurrentHashMap<>();
+
+    private Identifiers() {} // Don't let anyone create an instance of this class.
+
+    /**
+     * Validate a user id: exactly 3 letters.
+     *
+     * @param id the user id, in any case.
+     * @param name the argument name to use in error messages (ex: "user").
+     * @return the shared upper case instance of the id.
+     * @throws NullArgumentException if the id is null.
+     * @throws InvalidArgumentException if the id isn't 3 letters.
+     */
+    public static String userId(String id, String name) throws NullArgumentException, InvalidArgumentException {
+        if (id == null) { throw new NullArgumentException("Invalid " + name + " argument: null"); }
+        if (id.length() != 3) { throw new InvalidArgumentException("Invalid " + name + " argument: must be 3 characters in length"); }
+        if (!allIn(id, LETTER)) { throw new InvalidArgumentException("Invalid " + name + " argument: must only contain letter characters"); }
+        return intern(id);
+    }
+
+    /**
+     * Validate a product symbol: 1 to 5 letters, digits or periods.
+     *
+     * @param symbol the product symbol, in any case.
+     * @return the shared upper case instance of the symbol.
+     * @throws NullArgumentException if the symbol is null.
+     * @throws InvalidArgumentException if the symbol is the wrong length or has another character.
+     */
+    public static String product(String symbol) throws NullArgumentException, InvalidArgumentException {
+        if (symbol == null) { throw new NullArgumentException("Invalid product argument: null"); }
+        if (symbol.length() == 0 || symbol.length() > 5) { throw new InvalidArgumentException("Invalid product argument: length must be 1 to 5 characters"); }
+        if (!allIn(symbol, SYMBOL_CHAR)) { throw new InvalidArgumentException("Invalid product argument: must only contain letters, numbers, or a period"); }
+        return intern(symbol);
+    }
+
+    private static boolean allIn(String value, boolean[] table) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 128 || !table[c]) { return false; }
+        }
+        return true;
+    }
+
+    /** @return the shared instance of an id already checked to only have ASCII letters, digits or periods. */
+    private static String intern(String id) {
+        String canonical = interned.get(id); // Hits for upper case ids seen before, the usual case.
+        if (canonical != null) { return canonical; }
+        String upper = toUpperCase(id);
+        if (upper != id) {
+            canonical = interned.get(upper);
+            if (canonical != null) { return canonical; }
+        }
+        if (interned.size() >= INTERN_LIMIT) { return upper; }
+        canonical = interned.putIfAbsent(upper, upper);
+        return (canonical != null) ? canonical : upper;
+    }
+
+    /** @return the id in upper case, or the same instance if it has no lower case letters. */
+    private static String toUpperCase(String id) {
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                char[] chars = id.toCharArray();
+                for (int j = i; j < chars.length; j++) {
+                    if (chars[j] >= 'a' && chars[j] <= 'z') { chars[j] -= 'a' - 'A'; }
+                }
+                return new String(chars);
+            }
+        }
+        return id;
+    }
+}
@@ -12,6 +12,11 @@ public class Order {
 
     private String user;
     private String product;
+    /** The product's id, see {@link SymbolRegistry}, or -1 until the product is registered. */
+    private int productId = -1;
+    /** The order id, see {@link OrderIds}. */
+    private long orderId;
+    /** The string form of the order id, built the first time it's asked for. */
     private String id;
     private BookSide side;
     private Price price;
@@ -20,6 +25,17 @@ public class Order {
     private int remainingVolume;
     private int filledVolume = 0;
     private int cancelledVolume = 0;
+    /** For an iceberg order, the most volume shown on the book at once; 0 to show all of it. */
+    private int peakVolume = 0;
+    /** The part of the remaining volume held back from the book, always 0 unless this is an iceberg order. */
+    private int hiddenVolume = 0;
+    /** The {@link ExecutionReport#sequence} of the last report made for the order, 0 before the first. */
+    private long reportSequence = 0;
+
+    /** True if the order came from the {@link TradablePool}, and goes back to it once released. */
+    private final boolean pooled;
+    /** True while a pooled order is back in the pool, when using it is a bug. */
+    private boolean released;
 
     public Order(String user, String product, BookSide side, Price price, int volume) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
         setUser(user);
@@ -27,21 +43,105 @@ public class Order {
         setSide(side);
         setPrice(price);
         setVolume(volume);
-        this.id = this.user + this.product + price + System.nanoTime();
+        this.orderId = OrderIds.next();
+        this.pooled = false;
+    }
+
+    /**
+     * Recreate an order with the id it was given originally, when restoring orders (ex: replaying a journal).
+     * Use {@link OrderIds#advancePast(long)} afterwards so new orders don't reuse the id.
+     *
+     * @throws InvalidRangeException if the order id or volume is out of range.
+     */
+    public Order(String user, String product, BookSide side, Price price, int volume, long orderId) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        if (orderId <= 0) { throw new InvalidRangeException("Invalid orderId argument " + orderId + ": must be greater than 0"); }
+        setUser(user);
+        setProduct(product);
+        setSide(side);
+        setPrice(price);
+        setVolume(volume);
+        this.orderId = orderId;
+        this.pooled = false;
+    }
+
+    /**
+     * Create an iceberg order: only up to the peak volume is shown on the book and can trade at a time, and
+     * the rest is held back in reserve. Each time the shown volume trades away, another peak is shown from the
+     * reserve at the back of the queue for the price, like a new order would be.
+     *
+     * @param peakVolume the most volume to show at once, less than the volume.
+     * @throws InvalidRangeException if the volume or peak volume is out of range.
+     */
+    public static Order iceberg(String user, String product, BookSide side, Price price, int volume, int peakVolume) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        Order order = new Order(user, product, side, price, volume);
+        order.setPeakVolume(peakVolume);
+        return order;
+    }
+
+    /**
+     * Recreate an iceberg order with the id it was given originally, see {@link #Order(String, String, BookSide, Price, int, long)}.
+     */
+    public static Order iceberg(String user, String product, BookSide side, Price price, int volume, int peakVolume, long orderId) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        Order order = new Order(user, product, side, price, volume, orderId);
+        order.setPeakVolume(peakVolume);
+        return order;
+    }
+
+    /** An empty order for the {@link TradablePool}, set up by {@link #init} each time it's handed out. */
+    Order() {
+        this.pooled = true;
+        this.released = true;
+    }
+
+    /**
+     * Set up a pooled order as a new order, exactly as the public constructor would.
+     */
+    void init(String user, String product, BookSide side, Price price, int volume) throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        setUser(user);
+        setProduct(product);
+        setSide(side);
+        setPrice(price);
+        setVolume(volume);
+        this.filledVolume = 0;
+        this.cancelledVolume = 0;
+        this.peakVolume = 0;
+        this.hiddenVolume = 0;
+        this.reportSequence = 0;
+        this.id = null;
+        this.orderId = OrderIds.next();
+        this.released = false;
+    }
+
+    /**
+     * Return a pooled order to the {@link TradablePool} once it has left the book, fully filled or cancelled.
+     * Using the order afterwards throws an {@link IllegalStateException}. Does nothing for orders that
+     * weren't taken from the pool.
+     *
+     * @throws IllegalStateException if the order has already been released.
+     */
+    public void release() {
+        if (!pooled) { return; }
+        checkLive();
+        released = true;
+        user = null; // Drop references so a stale holder fails fast, and the pool doesn't retain them.
+        product = null;
+        id = null;
+        TradablePool.release(this);
+    }
+
+    public boolean isPooled() { return pooled; }
+
+    private void checkLive() {
+        if (released) { throw new IllegalStateException("Order " + orderId + " used after it was released to the pool"); }
     }
 
     private void setUser(String user) throws NullArgumentException, InvalidArgumentException {
-        if (user == null) { throw new NullArgumentException("Invalid user argument: null"); }
-        if (user.length() != 3) { throw new InvalidArgumentException("Invalid user argument: must be 3 characters in length"); }
-        if (!user.matches("[a-zA-Z]*")) { throw new InvalidArgumentException("Invalid user argument: must only contain letter characters"); }
-        this.user = user.toUpperCase();
+        this.user = Identifiers.userId(user, "user");
     }
 
     private void setProduct(String product) throws NullArgumentException, InvalidArgumentException {
-        if (product == null) { throw new NullArgumentException("Invalid product argument: null"); }
-        if (product.length() == 0 || product.length() > 5) { throw new InvalidArgumentException("Invalid product argument: length must be 1 to 5 characters"); }
-        if (!product.matches("[a-zA-Z0-9.]*")) { throw new InvalidArgumentException("Invalid product argument: must only contain letters, numbers, or a period"); }
-        this.product = product.toUpperCase();
+        this.product = Identifiers.product(product);
+        this.productId = SymbolRegistry.getInstance().idOf(this.product);
     }
 
     private void setPrice(Price price) throws NullArgumentException {
@@ -61,64 +161,192 @@ public class Order {
         this.remainingVolume = volume;
     }
 
+    private void setPeakVolume(int peakVolume) throws InvalidRangeException {
+        if (peakVolume <= 0 || peakVolume >= originalVolume) { throw new InvalidRangeException("Invalid peak volume argument " +
+                peakVolume + ": must be greater than 0, and less than the volume ->" + originalVolume); }
+        this.peakVolume = peakVolume;
+        this.hiddenVolume = originalVolume - peakVolume;
+    }
+
+    /**
+     * Set the remaining volume. For an iceberg order volume taken away comes off the shown volume, and only
+     * comes out of the hidden reserve once none is shown.
+     */
     public void setRemainingVolume(int volume) throws InvalidRangeException {
+        checkLive();
         if (volume < 0 || volume > originalVolume) { throw new InvalidRangeException("Invalid remaining volume argument " +
                 volume + ": cannot be negative or above the original volume ->" + originalVolume); }
+        hiddenVolume = Math.min(hiddenVolume, volume);
         remainingVolume = volume;
     }
 
     public void setFilledVolume(int volume) throws InvalidRangeException {
+        checkLive();
         if (volume < 0 || volume > originalVolume) { throw new InvalidRangeException("Invalid filled volume argument " +
                 volume + ": cannot be negative or above the original volume ->" + originalVolume); }
         filledVolume = volume;
     }
 
     public void setCancelledVolume(int volume) throws InvalidRangeException {
+        checkLive();
         if (volume < 0 || volume > originalVolume) { throw new InvalidRangeException("Invalid canceled volume argument " +
                 volume + ": cannot be negative or above the original volume ->" + originalVolume); }
         cancelledVolume = volume;
     }
 
+    /**
+     * Change a resting order's price and remaining volume when it's amended on the book. Taking volume away
+     * counts it as cancelled, and adding volume adds it to the original volume too, so the volumes still add
+     * up. Nothing is changed if the amend is out of range.
+     *
+     * @param price the new price.
+     * @param volume the new remaining volume.
+     * @throws NullArgumentException if the price is null.
+     * @throws InvalidRangeException if the volume isn't positive, or would take the original volume to 10000 or more.
+     */
+    public void amend(Price price, int volume) throws NullArgumentException, InvalidRangeException {
+        checkLive();
+        if (price == null) { throw new NullArgumentException("Invalid Price argument: null"); }
+        int change = volume - remainingVolume;
+        if (volume <= 0 || originalVolume + Math.max(change, 0) >= 10000) { throw new InvalidRangeException("Invalid amend volume argument " +
+                volume + ": must be greater than 0, and keep the original volume less than 10000"); }
+        if (change < 0) { cancelledVolume -= change; } else { originalVolume += change; }
+        if (peakVolume > 0) { hiddenVolume = Math.max(0, hiddenVolume + change); } // Volume is taken from, or added to, the reserve.
+        remainingVolume = volume;
+        if (price.getValue() != this.price.getValue()) {
+            this.price = price;
+            id = null; // The string form of the id shows the price.
+        }
+    }
+
     public String getUser() {
+        checkLive();
         return user;
     }
 
     public String getProduct() {
+        checkLive();
         return product;
     }
 
-    public String getId() { return id; }
+    /**
+     * @return the string form of the order id (ex: "ANNWMT$140.9842").
+     */
+    public String getId() {
+        checkLive();
+        if (id == null) { id = OrderIds.format(user, product, price.getValue(), orderId); }
+        return id;
+    }
+
+    /**
+     * @return the product's id, see {@link SymbolRegistry}, or -1 if the product hasn't been registered.
+     */
+    public int getProductId() {
+        checkLive();
+        if (productId < 0) { productId = SymbolRegistry.getInstance().idOf(product); } // Registered since creation.
+        return productId;
+    }
 
-    public BookSide getSide() { return side; }
+    public long getOrderId() {
+        checkLive();
+        return orderId;
+    }
+
+    public BookSide getSide() {
+        checkLive();
+        return side;
+    }
 
     public Price getPrice() {
+        checkLive();
         return PriceFactory.makePrice(price.getValue());
     }
 
     public int getOriginalVolume() {
+        checkLive();
         return originalVolume;
     }
 
     public int getRemainingVolume() {
+        checkLive();
         return remainingVolume;
     }
 
+    /**
+     * @return the remaining volume shown on the book, all of it unless this is an iceberg order.
+     */
+    public int getDisplayedVolume() {
+        checkLive();
+        return remainingVolume - hiddenVolume;
+    }
+
+    /**
+     * @return the most volume shown on the book at once for an iceberg order, or 0 for other orders.
+     */
+    public int getPeakVolume() {
+        checkLive();
+        return peakVolume;
+    }
+
+    public int getHiddenVolume() {
+        checkLive();
+        return hiddenVolume;
+    }
+
+    /**
+     * Set the part of the remaining volume held back from the book (ex: when restoring an iceberg order).
+     *
+     * @throws InvalidRangeException if this isn't an iceberg order, or the volume is out of range.
+     */
+    public void setHiddenVolume(int volume) throws InvalidRangeException {
+        checkLive();
+        if (volume < 0 || volume > remainingVolume || (peakVolume == 0 && volume > 0)) { throw new InvalidRangeException("Invalid hidden volume argument " +
+                volume + ": cannot be negative, above the remaining volume ->" + remainingVolume + ", or set on an order that isn't an iceberg"); }
+        hiddenVolume = volume;
+    }
+
+    /**
+     * Show up to another peak of an iceberg order from its hidden reserve, once the shown volume has traded away
+     * or the order is moved. Does nothing for other orders.
+     */
+    public void showPeak() {
+        checkLive();
+        hiddenVolume = (peakVolume == 0) ? 0 : Math.max(0, remainingVolume - peakVolume);
+    }
+
     public int getFilledVolume() {
+        checkLive();
         return filledVolume;
     }
 
     public int getCancelledVolume() {
+        checkLive();
         return cancelledVolume;
     }
 
+    /** Called by each {@link ExecutionReport} made for the order, so its snapshots know which reports they include. */
+    void setReportSequence(long sequence) {
+        reportSequence = sequence;
+    }
+
+    /**
+     * @return a snapshot of the order; taken from the {@link TradablePool} if the order was.
+     */
     public OrderDTO makeTradableDTO() {
-        return new OrderDTO(user, product, id, side, PriceFactory.makePrice(price.getValue()),
-                            originalVolume, remainingVolume, filledVolume, cancelledVolume);
+        checkLive();
+        OrderDTO dto = pooled
+                ? TradablePool.acquireDTO(user, product, orderId, getId(), side, PriceFactory.makePrice(price.getValue()),
+                        originalVolume, remainingVolume, filledVolume, cancelledVolume)
+                : new OrderDTO(user, product, orderId, getId(), side, PriceFactory.makePrice(price.getValue()),
+                        originalVolume, remainingVolume, filledVolume, cancelledVolume);
+        dto.sequence = reportSequence;
+        return dto;
     }
 
     @Override
     public String toString() {
         return user + " order: " + side + " " + product + " at " + price + ", Orig Vol: " + originalVolume
-                + ", Rem Vol: " + remainingVolume + ", Fill Vol: " + filledVolume + ", CXL Vol: " + cancelledVolume + ", ID: " + id;
+                + ", Rem Vol: " + remainingVolume + ", Fill Vol: " + filledVolume + ", CXL Vol: " + cancelledVolume
+                + ((peakVolume > 0) ? ", Peak Vol: " + peakVolume + ", Hidden Vol: " + hiddenVolume : "") + ", ID: " + getId();
     }
 }
@@ -7,6 +7,9 @@ public class OrderDTO {
 
     public String user;
     public String product;
+    /** The order id, see {@link OrderIds}. */
+    public long orderId;
+    /** The string form of the order id. */
     public String id;
     public BookSide side;
     public Price price;
@@ -15,11 +18,32 @@ public class OrderDTO {
     public int remainingVolume;
     public int filledVolume;
     public int cancelledVolume;
+    /** The {@link ExecutionReport#sequence} of the last change this copy includes, 0 if none. */
+    public long sequence;
 
-    public OrderDTO(String user, String product, String id, BookSide side, Price price,
+    /** True if the DTO came from the {@link TradablePool}, and goes back to it once released. */
+    private final boolean pooled;
+    /** True while a pooled DTO is back in the pool. */
+    private boolean released;
+
+    public OrderDTO(String user, String product, long orderId, String id, BookSide side, Price price,
                     int originalVolume, int remainingVolume, int filledVolume, int cancelledVolume) {
+        this.pooled = false;
+        set(user, product, orderId, id, side, price, originalVolume, remainingVolume, filledVolume, cancelledVolume);
+    }
+
+    /** An empty DTO for the {@link TradablePool}, filled in by {@link #set} each time it's handed out. */
+    OrderDTO() {
+        this.pooled = true;
+        this.released = true;
+    }
+
+    void set(String user, String product, long orderId, String id, BookSide side, Price price,
+             int originalVolume, int remainingVolume, int filledVolume, int cancelledVolume) {
+        this.released = false;
         this.user = user;
         this.product = product;
+        this.orderId = orderId;
         this.id = id;
         this.side = side;
         this.price = price;
@@ -27,8 +51,38 @@ public class OrderDTO {
         this.remainingVolume = remainingVolume;
         this.filledVolume = filledVolume;
         this.cancelledVolume = cancelledVolume;
+        this.sequence = 0;
+    }
+
+    /**
+     * Return a pooled DTO to the {@link TradablePool} once its holder is done with it. The fields are cleared
+     * (nulls and -1) so a stale reference fails fast. Does nothing for DTOs that weren't taken from the pool.
+     *
+     * @throws IllegalStateException if the DTO has already been released.
+     */
+    public void release() {
+        if (!pooled) { return; }
+        if (released) { throw new IllegalStateException("OrderDTO " + orderId + " released twice"); }
+        released = true;
+        user = null;
+        product = null;
+        id = null;
+        side = null;
+        price = null;
+        orderId = -1;
+        originalVolume = -1;
+        remainingVolume = -1;
+        filledVolume = -1;
+        cancelledVolume = -1;
+        sequence = -1;
+        TradablePool.release(this);
     }
 
+    /**
+     * @return true if the DTO has been released to the pool, and must no longer be used.
+     */
+    public boolean isReleased() { return released; }
+
     @Override
     public String toString() {
         return user + " order: " + side + " " + product + " at " + price + ", Orig Vol: " + originalVolume
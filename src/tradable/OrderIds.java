@@ -0,0 +1,91 @@
+package tradable;
+
+import price.Price;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out 64-bit order ids, and converts them to and from the string form shown to users. Ids are
+ * positive, unique across threads, and increase with every id taken on the same thread.
+ * <br><br>
+ * Each thread reserves a block of ids from a shared counter and then takes ids from its own block, so the
+ * shared counter is only touched once every {@link #BLOCK_SIZE} orders and threads creating orders at the
+ * same time (ex: several producers, or the matching threads) don't contend on it.
+ * <br><br>
+ * The string form keeps the original shape of user, product and price followed by the id number
+ * (ex: "ANNWMT$140.9842"), but is only built when it is asked for.
+ */
+public final class OrderIds {
+
+    /** The number of ids a thread reserves at a time. */
+    static final int BLOCK_SIZE = 1024;
+
+    /** The first id of the next unreserved block. */
+    private static final AtomicLong nextBlock = new AtomicLong(1);
+
+    /** Each thread's current block, [0] = the next id to hand out, [1] = the end of the block (exclusive). */
+    private static final ThreadLocal<long[]> blocks = ThreadLocal.withInitial(() -> new long[2]);
+
+    private OrderIds() {} // Don't let anyone create an instance of this class.
+
+    /**
+     * @return a new order id, greater than every id previously taken on the calling thread.
+     */
+    public static long next() {
+        long[] block = blocks.get();
+        if (block[0] == block[1]) { // Used up, reserve the next block.
+            block[0] = nextBlock.getAndAdd(BLOCK_SIZE);
+            block[1] = block[0] + BLOCK_SIZE;
+        }
+        return block[0]++;
+    }
+
+    /**
+     * Make sure ids handed out from now on are greater than an id restored from elsewhere (ex: a journal),
+     * so new orders can't reuse it. Only affects blocks reserved after the call, so call it before other
+     * threads start creating orders.
+     *
+     * @param id an id already in use.
+     */
+    public static void advancePast(long id) {
+        nextBlock.accumulateAndGet(id + 1, Math::max);
+        long[] block = blocks.get();
+        block[0] = block[1]; // Drop the calling thread's current block, it may be below the id.
+    }
+
+    /**
+     * @return the string form of an order id (ex: "ANNWMT$140.9842").
+     */
+    public static String format(String user, String product, long price, long id) {
+        return appendTo(new StringBuilder(32), user, product, price, id).toString();
+    }
+
+    /**
+     * Append the string form of an order id, without building the string on its own.
+     *
+     * @return the builder.
+     */
+    public static StringBuilder appendTo(StringBuilder out, String user, String product, long price, long id) {
+        return out.append(user).append(product).append(Price.toString(price)).append(id);
+    }
+
+    /**
+     * Read the order id back out of its string form. The price in the string always ends with a decimal point
+     * and two digits of cents, and the id is every digit after it.
+     *
+     * @param formatted an id in the form returned by {@link #format(String, String, long, long)}.
+     * @return the order id, or -1 if the string isn't in that form.
+     */
+    public static long parse(String formatted) {
+        if (formatted == null) { return -1; }
+        int start = formatted.lastIndexOf('.') + 3;
+        if (start < 3 || start >= formatted.length() || formatted.length() - start > 18) { return -1; }
+        long id = 0;
+        for (int i = start; i < formatted.length(); i++) {
+            char c = formatted.charAt(i);
+            if (c < '0' || c > '9') { return -1; }
+            id = (id * 10) + (c - '0');
+        }
+        return id;
+    }
+}
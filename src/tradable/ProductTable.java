@@ -0,0 +1,69 @@
+package tradable;
+
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+/**
+ * A table of values indexed by product id (see {@link SymbolRegistry}), for per-product state looked up on
+ * every order or market update. Reads are a plain array index with no locking; writes are rare (ex: adding
+ * a product or a subscription), serialized, and replace the whole array so readers never see it half changed.
+ *
+ * @param <V> the type of value stored for each product.
+ */
+public final class ProductTable<V> {
+
+    private volatile Object[] values = new Object[0];
+
+    /**
+     * @param productId a product id.
+     * @return the value for the product, or null if there is none (including for a negative id).
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int productId) {
+        Object[] v = values;
+        return (productId >= 0 && productId < v.length) ? (V) v[productId] : null;
+    }
+
+    /**
+     * Set the value for a product.
+     *
+     * @return the previous value, or null if there was none.
+     */
+    public synchronized V put(int productId, V value) {
+        V previous = get(productId);
+        Object[] updated = Arrays.copyOf(values, Math.max(values.length, productId + 1));
+        updated[productId] = value;
+        values = updated;
+        return previous;
+    }
+
+    /**
+     * Set the value for a product unless it already has one.
+     *
+     * @return the existing value, or null if the given value was stored.
+     */
+    public synchronized V putIfAbsent(int productId, V value) {
+        V existing = get(productId);
+        if (existing == null) { put(productId, value); }
+        return existing;
+    }
+
+    /**
+     * Replace the value for a product with the result of a function of the current value (null if there is
+     * none), atomically with respect to other writes.
+     *
+     * @return the new value.
+     */
+    public synchronized V compute(int productId, UnaryOperator<V> function) {
+        V updated = function.apply(get(productId));
+        if (updated != null || get(productId) != null) { put(productId, updated); }
+        return updated;
+    }
+
+    public synchronized void clear() { values = new Object[0]; }
+
+    /**
+     * @return one more than the highest product id that may have a value, for iterating the table with {@link #get(int)}.
+     */
+    public int capacity() { return values.length; }
+}
@@ -0,0 +1,73 @@
+package tradable;
+
+import exceptions.NullArgumentException;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns every product symbol a dense int id, starting at 0 in the order symbols are first registered. The
+ * product books, market slots and subscriptions are kept in {@link ProductTable}s indexed by this id, so the
+ * matching and publishing paths look them up by array index instead of hashing the symbol at every layer.
+ * The symbol is only resolved to its id once, at the edge (ex: when an order is created).
+ */
+public final class SymbolRegistry {
+
+    /** Singleton class instance, created eagerly so getInstance() is safe to call from any thread. */
+    private static final SymbolRegistry instance = new SymbolRegistry();
+
+    /** Mapping the product symbol to its id. */
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    /** Mapping the id to its product symbol, replaced as symbols are added. */
+    private volatile String[] symbols = new String[0];
+
+    public static SymbolRegistry getInstance() { return instance; }
+
+    private SymbolRegistry() {}
+
+    /**
+     * @param symbol a product symbol.
+     * @return the symbol's id, assigning the next one if the symbol is new.
+     * @throws NullArgumentException if the symbol is null.
+     */
+    public int register(String symbol) throws NullArgumentException {
+        if (symbol == null) { throw new NullArgumentException("Invalid product symbol argument: null"); }
+        Integer id = ids.get(symbol);
+        return (id != null) ? id : assign(symbol);
+    }
+
+    private synchronized int assign(String symbol) {
+        Integer id = ids.get(symbol);
+        if (id != null) { return id; } // Registered by another thread first.
+        int next = symbols.length;
+        String[] added = Arrays.copyOf(symbols, next + 1);
+        added[next] = symbol;
+        symbols = added;
+        ids.put(symbol, next);
+        return next;
+    }
+
+    /**
+     * @param symbol a product symbol.
+     * @return the symbol's id, or -1 if it's null or hasn't been registered.
+     */
+    public int idOf(String symbol) {
+        if (symbol == null) { return -1; }
+        Integer id = ids.get(symbol);
+        return (id != null) ? id : -1;
+    }
+
+    /**
+     * @param id a product id.
+     * @return the product symbol with the id, or null if there is none.
+     */
+    public String symbolOf(int id) {
+        String[] s = symbols;
+        return (id >= 0 && id < s.length) ? s[id] : null;
+    }
+
+    /**
+     * @return the number of registered symbols, one more than the highest id.
+     */
+    public int size() { return symbols.length; }
+}
@@ -0,0 +1,109 @@
+package tradable;
+
+import book.BookSide;
+import exceptions.InvalidArgumentException;
+import exceptions.InvalidRangeException;
+import exceptions.NullArgumentException;
+import price.Price;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An opt-in pool of {@link Order} and {@link OrderDTO} objects, for callers that create orders fast enough for
+ * the garbage they leave behind to matter (ex: the load generator). Orders taken from the pool are released
+ * back to it by the product book once they leave it, fully filled or cancelled, and their DTOs are released by
+ * the {@link user.User} holding them once it replaces or forgets them. Orders created with {@code new} are
+ * never pooled, and releasing them does nothing.
+ * <br><br>
+ * Each thread keeps its own stack of free objects, so taking and releasing on one thread never contends.
+ * An object released on a different thread from the one that took it (ex: an order filled on a matching
+ * thread) goes to the releasing thread's stack, and once a stack is full the extra objects are handed to a
+ * shared queue the other threads refill from before creating anything new.
+ * <br><br>
+ * A released object must not be used again: a released order throws an {@link IllegalStateException} from
+ * its getters and setters, and a released DTO has its fields cleared. Code that keeps a reference to a
+ * pooled order after it leaves the book (ex: a stage of the {@link pipeline.OrderPipeline} reading
+ * {@code getOrder()}) must copy what it needs before then.
+ */
+public final class TradablePool {
+
+    /** The most free objects of each kind one thread keeps to itself. */
+    static final int LOCAL_LIMIT = 1024;
+    /** The most free objects of each kind the threads share. Past this, released objects are left to the GC. */
+    static final int SHARED_LIMIT = 1 << 14;
+
+    private static final ThreadLocal<ArrayDeque<Order>> localOrders = ThreadLocal.withInitial(ArrayDeque::new);
+    private static final ThreadLocal<ArrayDeque<OrderDTO>> localDTOs = ThreadLocal.withInitial(ArrayDeque::new);
+    private static final ArrayBlockingQueue<Order> sharedOrders = new ArrayBlockingQueue<>(SHARED_LIMIT);
+    private static final ArrayBlockingQueue<OrderDTO> sharedDTOs = new ArrayBlockingQueue<>(SHARED_LIMIT);
+
+    private static final LongAdder created = new LongAdder();
+    private static final LongAdder reused = new LongAdder();
+
+    private TradablePool() {} // Don't let anyone create an instance of this class.
+
+    /**
+     * Take an order from the pool, validated exactly as {@link Order#Order(String, String, BookSide, Price, int)}
+     * would, with a new order id.
+     *
+     * @throws NullArgumentException if any argument is null.
+     * @throws InvalidArgumentException if the user or product code is invalid.
+     * @throws InvalidRangeException if the volume is out of range.
+     */
+    public static Order acquireOrder(String user, String product, BookSide side, Price price, int volume)
+            throws NullArgumentException, InvalidRangeException, InvalidArgumentException {
+        Order order = localOrders.get().pollLast();
+        if (order == null) { order = sharedOrders.poll(); }
+        if (order == null) {
+            order = new Order();
+            created.increment();
+        } else {
+            reused.increment();
+        }
+        try {
+            order.init(user, product, side, price, volume);
+        } catch (NullArgumentException | InvalidRangeException | InvalidArgumentException e) {
+            offer(localOrders.get(), sharedOrders, order); // Still free, put it back.
+            throw e;
+        }
+        return order;
+    }
+
+    static OrderDTO acquireDTO(String user, String product, long orderId, String id, BookSide side, Price price,
+                               int originalVolume, int remainingVolume, int filledVolume, int cancelledVolume) {
+        OrderDTO dto = localDTOs.get().pollLast();
+        if (dto == null) { dto = sharedDTOs.poll(); }
+        if (dto == null) {
+            dto = new OrderDTO();
+            created.increment();
+        } else {
+            reused.increment();
+        }
+        dto.set(user, product, orderId, id, side, price, originalVolume, remainingVolume, filledVolume, cancelledVolume);
+        return dto;
+    }
+
+    static void release(Order order) { offer(localOrders.get(), sharedOrders, order); }
+
+    static void release(OrderDTO dto) { offer(localDTOs.get(), sharedDTOs, dto); }
+
+    private static <T> void offer(ArrayDeque<T> local, ArrayBlockingQueue<T> shared, T item) {
+        if (local.size() < LOCAL_LIMIT) {
+            local.addLast(item);
+        } else {
+            shared.offer(item); // Dropped for the GC if the shared queue is full too.
+        }
+    }
+
+    /**
+     * @return the number of orders and DTOs the pool has had to create.
+     */
+    public static long getCreatedCount() { return created.sum(); }
+
+    /**
+     * @return the number of orders and DTOs handed out again after being released.
+     */
+    public static long getReusedCount() { return reused.sum(); }
+}
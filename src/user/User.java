@@ -1,87 +1,286 @@
 package user;
 
+import book.BookSide;
 import tracking.CurrentMarketObserver;
 import tracking.CurrentMarketSide;
+import tracking.MarketSnapshot;
+import tradable.ExecutionReport;
+import tradable.Identifiers;
 import tradable.OrderDTO;
+import tradable.OrderIds;
+import tradable.ProductTable;
+import tradable.SymbolRegistry;
 import exceptions.InvalidArgumentException;
 import exceptions.NullArgumentException;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
 
 public class User implements CurrentMarketObserver {
 
     private String userId;
 
-    /** Store orders mapping the order ID to the {@link OrderDTO}. */
-    private final HashMap<String, OrderDTO> orders;
+    /** The most completed (filled or cancelled) orders kept in a user's history. */
+    private static final int HISTORY_LIMIT = 100;
+
+    /**
+     * Store working orders, those with volume remaining, mapping the numeric order ID to the {@link OrderDTO}.
+     * Kept in the order they were placed, so the oldest working order is always first.
+     */
+    private final LinkedHashMap<Long, OrderDTO> liveOrders;
+    /** Store the most recently completed orders, mapping the order ID to the {@link OrderDTO}, oldest first. */
+    private final LinkedHashMap<Long, OrderDTO> history;
+    /**
+     * The latest execution report for orders the user hasn't been given yet, mapping the order ID to the
+     * report. An order can trade on the matching thread before its {@link OrderDTO} reaches the user.
+     */
+    private final LinkedHashMap<Long, ExecutionReport> earlyExecutions;
+    /** Net filled volume mapping the product symbol to the shares bought less the shares sold. */
+    /** Net filled volume by product id (see {@link SymbolRegistry}), shares bought less shares sold; grown as new ids trade. */
+    private long[] positions;
 
     /**
      * Store current market values for the stock symbols the user is subscribed to.
-     * Mapping the stock symbol to a {@link CurrentMarketSide} array where index
-     * ([0] = Buy market values, [1] = Sell market values).
+     * Mapping the symbol's product id to the user's own {@link MarketSnapshot} copy, overwritten in place on
+     * each update. Safe for updates arriving from the matching threads of several products at once.
      */
-    private final HashMap<String, CurrentMarketSide[]> currentMarkets;
+    private final ProductTable<MarketSnapshot> currentMarkets;
 
     public User(String id) throws NullArgumentException, InvalidArgumentException {
         setUserId(id);
-        orders = new HashMap<>();
-        currentMarkets = new HashMap<>();
+        liveOrders = new LinkedHashMap<>();
+        history = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, OrderDTO> eldest) {
+                if (size() <= HISTORY_LIMIT) { return false; }
+                eldest.getValue().release(); // Forget the oldest completed order once the history is full.
+                return true;
+            }
+        };
+        earlyExecutions = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ExecutionReport> eldest) {
+                return size() > HISTORY_LIMIT; // Bounded in case an order never reaches the user.
+            }
+        };
+        positions = new long[0];
+        currentMarkets = new ProductTable<>();
     }
 
     private void setUserId(String id) throws NullArgumentException, InvalidArgumentException {
-        if (id == null) { throw new NullArgumentException("Invalid userId argument: null"); }
-        if (id.length() != 3) { throw new InvalidArgumentException("Invalid userId argument: must be 3 characters in length"); }
-        if (!id.matches("[a-zA-Z]*")) { throw new InvalidArgumentException("Invalid userId argument: must only contain letter characters"); }
-        this.userId = id.toUpperCase();
+        this.userId = Identifiers.userId(id, "userId");
     }
 
     public String getUserId() {
         return userId;
     }
 
-    public void addOrder(OrderDTO order) throws NullArgumentException {
+    /**
+     * Add or update the user's copy of an order. Orders with volume remaining are working orders, and the
+     * rest are moved to the bounded history. A copy older than the one the user already has (ex: the
+     * {@link OrderDTO} from adding an order that has since traded) is ignored.
+     * <br><br>
+     * The user owns the DTOs given to it: a pooled DTO (see {@link tradable.TradablePool}) is released once it
+     * is ignored, replaced by another copy of the order, or dropped from the history, so callers must not keep
+     * using it afterwards.
+     *
+     * @param order the latest state of the order.
+     * @throws NullArgumentException if the order is null.
+     */
+    public synchronized void addOrder(OrderDTO order) throws NullArgumentException {
         if (order == null) { throw new NullArgumentException("Invalid OrderDTO argument: null"); }
-        orders.put(order.id, order);
+        OrderDTO known = getOrder(order.orderId);
+        if (known != null && known != order && known.sequence > order.sequence) {
+            order.release();
+            return;
+        }
+        ExecutionReport early = earlyExecutions.remove(order.orderId);
+        if (early != null) { early.applyTo(order); } // Catch up on trades made before the order got here.
+        fileOrder(order);
     }
 
-    public boolean hasOrderWithRemainingQty() {
-        return getOrderWithRemainingQty() != null;
+    /** Keep an order with the working orders, or in the history once it has no volume left. */
+    private void fileOrder(OrderDTO order) {
+        if (order.remainingVolume > 0) {
+            releaseReplaced(liveOrders.put(order.orderId, order), order); // Replacing an existing working order keeps its place.
+        } else {
+            releaseReplaced(liveOrders.remove(order.orderId), order);
+            releaseReplaced(history.put(order.orderId, order), order);
+        }
+    }
+
+    /** Release an older copy of an order once the user has stopped holding it. */
+    private static void releaseReplaced(OrderDTO old, OrderDTO order) {
+        if (old != null && old != order) { old.release(); }
     }
 
-    public OrderDTO getOrderWithRemainingQty() {
-        // Loop though all the orders and return the first order with volume remaining:
-        for (OrderDTO order : orders.values()) {
-            if (order.remainingVolume > 0) { return order; }
+    /**
+     * Apply a batch of execution reports for this user's orders, updating the working orders and positions.
+     *
+     * @param reports the reports, in the order they happened.
+     */
+    public synchronized void applyExecutions(List<ExecutionReport> reports) {
+        for (ExecutionReport report : reports) {
+            if (report.type == ExecutionReport.Type.FILL) { // Track the net position from each fill.
+                long signedVolume = (report.side == BookSide.BUY) ? report.volume : -report.volume;
+                if (report.productId >= positions.length) { growPositions(report.productId); }
+                positions[report.productId] += signedVolume;
+            }
+
+            OrderDTO order = liveOrders.get(report.orderId);
+            if (order != null) {
+                if (report.applyTo(order)) { fileOrder(order); }
+            } else if (!history.containsKey(report.orderId)) { // Not given the order yet, keep the newest report.
+                ExecutionReport early = earlyExecutions.get(report.orderId);
+                if (early == null || early.sequence < report.sequence) {
+                    earlyExecutions.put(report.orderId, report);
+                }
+            }
         }
+    }
 
-        return null;
+    /**
+     * @param product a product symbol.
+     * @return the user's net filled volume in the product, shares bought less shares sold.
+     */
+    public synchronized long getPosition(String product) {
+        int productId = SymbolRegistry.getInstance().idOf(product);
+        return (productId >= 0 && productId < positions.length) ? positions[productId] : 0;
+    }
+
+    /**
+     * Restore the user's net filled volume in a product (ex: from a snapshot).
+     *
+     * @param product a product symbol.
+     * @param position shares bought less shares sold.
+     * @throws NullArgumentException if the product is null.
+     */
+    public synchronized void setPosition(String product, long position) throws NullArgumentException {
+        if (product == null) { throw new NullArgumentException("Invalid product argument: null"); }
+        int productId = SymbolRegistry.getInstance().register(product);
+        if (productId >= positions.length) { growPositions(productId); }
+        positions[productId] = position;
+    }
+
+    /** Grow the positions to cover a product id, and every other id registered so far, so they rarely grow again. */
+    private void growPositions(int productId) {
+        positions = Arrays.copyOf(positions, Math.max(productId + 1, SymbolRegistry.getInstance().size()));
     }
 
+    /**
+     * Visit the user's non-zero positions.
+     *
+     * @param action called with each product symbol and net filled volume.
+     */
+    public synchronized void forEachPosition(ObjLongConsumer<String> action) {
+        for (int productId = 0; productId < positions.length; productId++) {
+            if (positions[productId] != 0) { action.accept(SymbolRegistry.getInstance().symbolOf(productId), positions[productId]); }
+        }
+    }
+
+    /**
+     * Visit the user's copy of each order, the working orders then the history, oldest first.
+     *
+     * @param action called with each order, which it must not keep: the user may release it.
+     */
+    public synchronized void forEachOrder(Consumer<OrderDTO> action) {
+        liveOrders.values().forEach(action);
+        history.values().forEach(action);
+    }
+
+    public synchronized boolean hasOrderWithRemainingQty() {
+        return !liveOrders.isEmpty();
+    }
+
+    /**
+     * @return the user's oldest working order, or null if there are none.
+     */
+    public synchronized OrderDTO getOrderWithRemainingQty() {
+        if (liveOrders.isEmpty()) { return null; }
+        return liveOrders.values().iterator().next();
+    }
+
+    /**
+     * @param id the string form of an order ID.
+     * @return the user's copy of the order, from the working orders or the history, or null if it's unknown.
+     */
+    public OrderDTO getOrder(String id) {
+        return getOrder(OrderIds.parse(id));
+    }
+
+    /**
+     * @param orderId an order ID, see {@link OrderIds}.
+     * @return the user's copy of the order, from the working orders or the history, or null if it's unknown.
+     */
+    public synchronized OrderDTO getOrder(long orderId) {
+        OrderDTO order = liveOrders.get(orderId);
+        return (order != null) ? order : history.get(orderId);
+    }
+
+    /**
+     * @return the number of working orders, those with volume remaining.
+     */
+    public synchronized int getLiveOrderCount() { return liveOrders.size(); }
+
     @Override
     public void updateCurrentMarket(String symbol, CurrentMarketSide buySide, CurrentMarketSide sellSide) {
         if (symbol != null && buySide != null && sellSide != null) {
             // Store local copy of the top current market values for the given stock symbol.
-            currentMarkets.put(symbol, new CurrentMarketSide[]{buySide, sellSide});
+            long buyPrice = buySide.getPrice().getValue();
+            long sellPrice = sellSide.getPrice().getValue();
+            long width = (buyPrice == 0 || sellPrice == 0) ? 0 : sellPrice - buyPrice; // Zero width if either side has no price.
+            marketFor(symbol, SymbolRegistry.getInstance().idOf(symbol)).update(buyPrice, buySide.getVolume(), sellPrice, sellSide.getVolume(), width);
+        }
+    }
+
+    @Override
+    public void updateCurrentMarket(MarketSnapshot market) {
+        // Copy the values into the user's own slot for the symbol, allocating only on the first update.
+        if (market != null) { marketFor(market.getSymbol(), market.getProductId()).copyFrom(market); }
+    }
+
+    /**
+     * @param productId the symbol's product id, or -1 if it isn't registered yet.
+     */
+    private MarketSnapshot marketFor(String symbol, int productId) {
+        MarketSnapshot market = currentMarkets.get(productId);
+        if (market == null) {
+            try {
+                MarketSnapshot created = new MarketSnapshot(symbol); // Registers the symbol if needed.
+                market = currentMarkets.putIfAbsent(created.getProductId(), created);
+                if (market == null) { market = created; }
+            } catch (NullArgumentException e) {
+                throw new IllegalStateException(e); // Callers never pass a null symbol.
+            }
         }
+        return market;
     }
 
     public String getCurrentMarkets() {
         StringBuilder out = new StringBuilder();
         // Add a current market summary of each stock symbol the users is subscribed to:
-        for (String symbol : currentMarkets.keySet()) {
-            CurrentMarketSide[] sides = currentMarkets.get(symbol);
-            out.append("\n").append(symbol).append(" ").append(sides[0]).append(" - ").append(sides[1]);
+        for (int id = 0; id < currentMarkets.capacity(); id++) {
+            MarketSnapshot market = currentMarkets.get(id);
+            if (market == null) { continue; }
+            market.appendTo(out.append("\n").append(market.getSymbol()).append(" "));
         }
 
         return out.toString();
     }
 
     @Override
-    public String toString() {
+    public synchronized String toString() {
         StringBuilder out = new StringBuilder("User Id: ").append(userId); // Add User Id header.
         // If there are no orders, then use empty placeholder.
-        if (orders.size() == 0) { return out.append("\n\t<Empty>").toString(); }
-        for (OrderDTO dto : orders.values()) { // Add all order summaries.
+        if (liveOrders.isEmpty() && history.isEmpty()) { return out.append("\n\t<Empty>").toString(); }
+        for (OrderDTO dto : liveOrders.values()) { // Add all order summaries, working orders first.
+            out.append("\n\t").append(dto);
+        }
+        for (OrderDTO dto : history.values()) {
             out.append("\n\t").append(dto);
         }
 
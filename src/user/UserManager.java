@@ -1,28 +1,27 @@
 package user;
 
 import exceptions.InvalidOperationException;
+import tradable.ExecutionReport;
 import tradable.OrderDTO;
 import exceptions.InvalidArgumentException;
 import exceptions.NullArgumentException;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public final class UserManager {
 
-    /** Singleton class instance. */
-    private static UserManager instance;
+    /** Singleton class instance, created eagerly so getInstance() is safe to call from any thread. */
+    private static final UserManager instance = new UserManager();
     /** Store Users mapping the user ID to the User. */
-    private final HashMap<String, User> users;
+    private final ConcurrentHashMap<String, User> users;
 
-    public static UserManager getInstance() {
-        // Create a new instance if the singleton instance doesn't already exist:
-        if (instance == null) {
-            instance = new UserManager();
-        }
-        return instance;
-    }
+    public static UserManager getInstance() { return instance; }
 
-    private UserManager() { users = new HashMap<>(); }
+    private UserManager() { users = new ConcurrentHashMap<>(); }
 
     public void init(String[] userIds) throws NullArgumentException, InvalidArgumentException {
         if (userIds == null) { throw new NullArgumentException("Invalid userIds array argument: null"); }
@@ -42,6 +41,13 @@ public final class UserManager {
         return users[(int)(Math.random() * users.length)]; // Pick a random user from the array.
     }
 
+    /**
+     * @param action called with each user, in no particular order.
+     */
+    public void forEachUser(Consumer<User> action) {
+        users.values().forEach(action);
+    }
+
     public void addToUser(String userId, OrderDTO order) throws NullArgumentException, InvalidArgumentException {
         if (userId == null) { throw new NullArgumentException("Invalid userId argument: null"); }
         if (order == null) { throw new NullArgumentException("Invalid OrderDTO argument: null"); }
@@ -55,6 +61,31 @@ public final class UserManager {
         }
     }
 
+    /**
+     * Apply a batch of execution reports from a product book, grouped so each user takes all of their
+     * reports at once. Reports for users that don't exist (ex: orders entered directly on a book) are ignored.
+     *
+     * @param reports the reports, in the order they happened.
+     * @throws NullArgumentException if the reports are null.
+     */
+    public void acceptExecutions(List<ExecutionReport> reports) throws NullArgumentException {
+        if (reports == null) { throw new NullArgumentException("Invalid reports argument: null"); }
+        if (reports.size() == 1) { // The usual case, a single fill or cancel.
+            User user = users.get(reports.get(0).user);
+            if (user != null) { user.applyExecutions(reports); }
+            return;
+        }
+
+        HashMap<String, List<ExecutionReport>> byUser = new HashMap<>();
+        for (ExecutionReport report : reports) {
+            byUser.computeIfAbsent(report.user, id -> new ArrayList<>()).add(report);
+        }
+        for (List<ExecutionReport> userReports : byUser.values()) {
+            User user = users.get(userReports.get(0).user);
+            if (user != null) { user.applyExecutions(userReports); }
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder out = new StringBuilder("Users:"); // Add users section header.